@@ -31,6 +31,7 @@ import com.telldus.live.mobile.Database.PrefManager;
 import com.telldus.live.mobile.API.OnAPITaskComplete;
 import com.telldus.live.mobile.BuildConfig;
 
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -40,9 +41,52 @@ import org.json.JSONException;
 public class API {
     private static String API_SERVER = BuildConfig.TELLDUS_API_SERVER;
 
-    public void callEndPoint(final Context context, final String params, String tag, final OnAPITaskComplete callBack) {
+    // Access token is refreshed this long before it expires, so that requests do not
+    // have to fail once with "expired_token" first.
+    private static final long ACCESS_TOKEN_REFRESH_MARGIN = 5 * 60 * 1000;
+
+    // Shared by all instances, so that only one refresh request is in flight at a time
+    // and every other caller waits for the result of that request.
+    private static final Object refreshLock = new Object();
+    private static boolean isRefreshingAccessToken = false;
+    private static ArrayList<OnAPITaskComplete> pendingRefreshCallbacks = new ArrayList<OnAPITaskComplete>();
+
+    public void callEndPoint(final Context context, final String params, final String tag, final OnAPITaskComplete callBack) {
         PrefManager prefManager = new PrefManager(context);
-        String accessToken = prefManager.getAccessToken();
+        if (!isAccessTokenAboutToExpire(prefManager)) {
+            request(context, params, tag, true, callBack);
+            return;
+        }
+
+        refreshAccessToken(context, new OnAPITaskComplete() {
+            @Override
+            public void onSuccess(JSONObject responseRefreshToken, HashMap<String, String> _authData) {
+                String error = responseRefreshToken.optString("error");
+                // If refresh failed there is no point in refreshing again on "invalid_token".
+                request(context, params, tag, error.isEmpty(), callBack);
+            }
+            @Override
+            public void onError(ANError errorRefreshToken) {
+                request(context, params, tag, false, callBack);
+            }
+        });
+    }
+
+    private boolean isAccessTokenAboutToExpire(PrefManager prefManager) {
+        String refreshToken = prefManager.getRefreshToken();
+        if (refreshToken == null || refreshToken.isEmpty()) {
+            return false;
+        }
+        long expiresAt = prefManager.getAccessTokenExpiresAt();
+        if (expiresAt == -1) {
+            return false;
+        }
+        return System.currentTimeMillis() >= (expiresAt - ACCESS_TOKEN_REFRESH_MARGIN);
+    }
+
+    private void request(final Context context, final String params, final String tag, final boolean canRefresh, final OnAPITaskComplete callBack) {
+        PrefManager prefManager = new PrefManager(context);
+        final String accessToken = prefManager.getAccessToken();
         String userEmail = prefManager.getUserId();
         String userUuid = prefManager.getUserUuid();
 
@@ -57,6 +101,7 @@ public class API {
                 .addHeaders("Accept", "application/json")
                 .addHeaders("Authorization", "Bearer " + accessToken)
                 .setPriority(Priority.LOW)
+                .setOkHttpClient(APIHttpClient.getInstance())
                 .build()
                 .getAsJSONObject(new JSONObjectRequestListener() {
                     @Override
@@ -64,23 +109,17 @@ public class API {
                         String error = response.optString("error");
 
                         if (!error.isEmpty() && error != null) {
-                            if ((error.equalsIgnoreCase("invalid_token")) || (error.equalsIgnoreCase("expired_token"))) {
-                                refreshAccessToken(context, new OnAPITaskComplete() {
+                            if (canRefresh && ((error.equalsIgnoreCase("invalid_token")) || (error.equalsIgnoreCase("expired_token")))) {
+                                refreshAndReplay(context, params, tag, accessToken, new OnAPITaskComplete() {
                                     @Override
                                     public void onSuccess(final JSONObject responseRefreshToken, HashMap<String, String> _authData) {
-
-                                        String error = responseRefreshToken.optString("error");
-                                        if (!error.isEmpty() && error != null) {
-                                            callBack.onSuccess(response, authData);
-                                        } else {
-                                            callEndPoint(context, params, tag, callBack);
-                                        }
+                                        callBack.onSuccess(response, authData);
                                     }
                                     @Override
                                     public void onError(ANError errorRefreshToken) {
                                         callBack.onSuccess(response, authData);
                                     }
-                                });
+                                }, callBack);
                             } else {
                                 callBack.onSuccess(response, authData);
                             }
@@ -96,22 +135,17 @@ public class API {
                                 JSONObject errorBody = new JSONObject(error.getErrorBody());
                                 String errorMessage = errorBody.optString("error");
                                 Boolean hasMessage = !errorMessage.isEmpty() && errorMessage != null;
-                                if (hasMessage && (errorMessage.equalsIgnoreCase("invalid_token")) || (errorMessage.equalsIgnoreCase("expired_token"))) {
-                                    refreshAccessToken(context, new OnAPITaskComplete() {
+                                if (canRefresh && hasMessage && ((errorMessage.equalsIgnoreCase("invalid_token")) || (errorMessage.equalsIgnoreCase("expired_token")))) {
+                                    refreshAndReplay(context, params, tag, accessToken, new OnAPITaskComplete() {
                                         @Override
                                         public void onSuccess(final JSONObject responseRefreshToken, HashMap<String, String> _authData) {
-                                            String errorRefreshToken = responseRefreshToken.optString("error");
-                                            if (!errorRefreshToken.isEmpty() && errorRefreshToken != null) {
-                                                callBack.onError(error);
-                                            } else {
-                                                callEndPoint(context, params, tag, callBack);
-                                            }
+                                            callBack.onError(error);
                                         }
                                         @Override
                                         public void onError(ANError errorRefreshToken) {
                                             callBack.onError(errorRefreshToken);
                                         }
-                                    });
+                                    }, callBack);
                                 } else {
                                     callBack.onError(error);
                                 }
@@ -126,7 +160,50 @@ public class API {
                 });
     }
 
+    /**
+     * Replays the request with a fresh access token. If some other request has already refreshed the token
+     * since this one was sent, the request is replayed right away. "onRefreshFailed" is invoked with the
+     * refresh response/error if the token could not be refreshed.
+     */
+    private void refreshAndReplay(final Context context, final String params, final String tag, String usedAccessToken,
+                                  final OnAPITaskComplete onRefreshFailed, final OnAPITaskComplete callBack) {
+        PrefManager prefManager = new PrefManager(context);
+        String currentAccessToken = prefManager.getAccessToken();
+        if (currentAccessToken != null && !currentAccessToken.isEmpty() && !currentAccessToken.equals(usedAccessToken)) {
+            request(context, params, tag, false, callBack);
+            return;
+        }
+
+        refreshAccessToken(context, new OnAPITaskComplete() {
+            @Override
+            public void onSuccess(final JSONObject responseRefreshToken, HashMap<String, String> _authData) {
+                String error = responseRefreshToken.optString("error");
+                if (!error.isEmpty() && error != null) {
+                    onRefreshFailed.onSuccess(responseRefreshToken, _authData);
+                } else {
+                    request(context, params, tag, false, callBack);
+                }
+            }
+            @Override
+            public void onError(ANError errorRefreshToken) {
+                onRefreshFailed.onError(errorRefreshToken);
+            }
+        });
+    }
+
+    /**
+     * Refreshes the access token. Concurrent callers share a single "/oauth2/accessToken" request,
+     * all of them are called back with its result.
+     */
     public void refreshAccessToken(final Context context, final OnAPITaskComplete callBack) {
+        synchronized (refreshLock) {
+            pendingRefreshCallbacks.add(callBack);
+            if (isRefreshingAccessToken) {
+                return;
+            }
+            isRefreshingAccessToken = true;
+        }
+
         final PrefManager prefManager = new PrefManager(context);
         final String clientId = prefManager.getClientID();
         final String clientSecret = prefManager.getClientSecret();
@@ -148,27 +225,38 @@ public class API {
             .addHeaders("Content-Type", "application/json")
             .addHeaders("Accept", "application/json")
             .setPriority(Priority.LOW)
+            .setOkHttpClient(APIHttpClient.getInstance())
             .build()
             .getAsJSONObject(new JSONObjectRequestListener() {
                 @Override
                 public void onResponse(JSONObject response) {
                     String error = response.optString("error");
-                    if (!error.isEmpty() && error != null) {
-                        callBack.onSuccess(response, authData);
-                    } else {
+                    if (error.isEmpty()) {
                         String accessTokenN = response.optString("access_token");
                         String expiresInN = response.optString("expires_in");
 
                         prefManager.setAccessDetails(accessTokenN, expiresInN, clientId, clientSecret, refreshToken);
-
-                        callBack.onSuccess(response, authData);
+                    }
+                    for (OnAPITaskComplete pending : takePendingRefreshCallbacks()) {
+                        pending.onSuccess(response, authData);
                     }
                 }
 
                 @Override
                 public void onError(ANError anError) {
-                    callBack.onError(anError);
+                    for (OnAPITaskComplete pending : takePendingRefreshCallbacks()) {
+                        pending.onError(anError);
+                    }
                 }
             });
     }
+
+    private static ArrayList<OnAPITaskComplete> takePendingRefreshCallbacks() {
+        synchronized (refreshLock) {
+            ArrayList<OnAPITaskComplete> callbacks = pendingRefreshCallbacks;
+            pendingRefreshCallbacks = new ArrayList<OnAPITaskComplete>();
+            isRefreshingAccessToken = false;
+            return callbacks;
+        }
+    }
 }
\ No newline at end of file
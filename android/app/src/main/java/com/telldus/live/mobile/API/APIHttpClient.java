@@ -0,0 +1,94 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.API;
+
+import com.telldus.live.mobile.BuildConfig;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Process wide HTTP client used for all widget API requests, so that connections(and TLS sessions)
+ * to the API server are reused across widget updates instead of being set up for every request.
+ */
+public class APIHttpClient {
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final long KEEP_ALIVE_DURATION_MINUTES = 5;
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+    private static final long READ_TIMEOUT_SECONDS = 20;
+    private static final long WRITE_TIMEOUT_SECONDS = 20;
+
+    private static volatile OkHttpClient client;
+
+    public static OkHttpClient getInstance() {
+        if (client == null) {
+            synchronized (APIHttpClient.class) {
+                if (client == null) {
+                    // OkHttp negotiates HTTP/2 over ALPN when the server supports it, and
+                    // transparently requests/decompresses gzip responses.
+                    client = new OkHttpClient.Builder()
+                            .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MINUTES, TimeUnit.MINUTES))
+                            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                            .connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                            .readTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                            .writeTimeout(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                            .retryOnConnectionFailure(true)
+                            .build();
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Opens a connection to the API server in the background, if there is no idle one already, so that
+     * the requests that follow(Ex: refreshing all widgets) do not have to wait for the connection setup.
+     */
+    public static void warmUp() {
+        OkHttpClient httpClient = getInstance();
+        if (httpClient.connectionPool().idleConnectionCount() > 0) {
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(BuildConfig.TELLDUS_API_SERVER)
+                .head()
+                .build();
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+            }
+        });
+    }
+}
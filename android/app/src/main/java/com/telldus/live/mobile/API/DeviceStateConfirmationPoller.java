@@ -0,0 +1,369 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.API;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.widget.Toast;
+
+import com.androidnetworking.error.ANError;
+
+import com.telldus.live.mobile.Database.MyDBHandler;
+import com.telldus.live.mobile.Model.DeviceInfo;
+import com.telldus.live.mobile.R;
+import com.telldus.live.mobile.Utility.DevicesUtilities;
+import com.telldus.live.mobile.Utility.SupportedMethods;
+import com.telldus.live.mobile.WidgetsUpdater;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Confirms that a device has reached the state requested from a widget, by polling "/device/info".
+ *
+ * Pending confirmations are grouped by device, so there is only one "/device/info" request per device per tick
+ * no matter how many widgets are waiting for it. Polling backs off exponentially until the timeout is reached.
+ * All the work happens on a single background thread, only the callbacks are delivered on the main thread.
+ */
+public class DeviceStateConfirmationPoller {
+    private static final long INITIAL_INTERVAL = 1000;
+    private static final long MAX_INTERVAL = 4000;
+    private static final long TIMEOUT = 10000;
+    // Ticks might fire slightly early, do not let that cause one extra request.
+    private static final long TIMEOUT_TOLERANCE = 250;
+
+    private static DeviceStateConfirmationPoller instance;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only accessed from the scheduler thread.
+    private final Map<Integer, PendingDevice> pendingDevices = new HashMap<Integer, PendingDevice>();
+
+    private static class PendingConfirmation {
+        int widgetId;
+        int method;
+        Map requestedValues;
+        OnAPITaskComplete callBack;
+        long startedAt;
+    }
+
+    private static class PendingDevice {
+        int deviceId;
+        Context context;
+        long interval = INITIAL_INTERVAL;
+        boolean isRequestInFlight = false;
+        ScheduledFuture<?> nextTick;
+        Map<Integer, PendingConfirmation> confirmations = new HashMap<Integer, PendingConfirmation>();
+    }
+
+    public static synchronized DeviceStateConfirmationPoller getInstance() {
+        if (instance == null) {
+            instance = new DeviceStateConfirmationPoller();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts waiting for the device to reach "method" (and "requestedValues", for dim and rgb). "callBack" is
+     * called once, either when the state is confirmed or when the timeout is reached. A previous confirmation
+     * still pending for the same widget is dropped.
+     */
+    public void confirm(Context context, final int deviceId, final int widgetId, final int method, final Map requestedValues, final OnAPITaskComplete callBack) {
+        final Context appContext = context.getApplicationContext();
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                PendingDevice device = pendingDevices.get(deviceId);
+                if (device == null) {
+                    device = new PendingDevice();
+                    device.deviceId = deviceId;
+                    pendingDevices.put(deviceId, device);
+                }
+                device.context = appContext;
+
+                PendingConfirmation confirmation = new PendingConfirmation();
+                confirmation.widgetId = widgetId;
+                confirmation.method = method;
+                confirmation.requestedValues = requestedValues;
+                confirmation.callBack = callBack;
+                confirmation.startedAt = SystemClock.elapsedRealtime();
+                device.confirmations.put(widgetId, confirmation);
+
+                // A new command was just sent, state is likely to change soon. Start over with short intervals.
+                device.interval = INITIAL_INTERVAL;
+                if (!device.isRequestInFlight) {
+                    scheduleTick(device, INITIAL_INTERVAL);
+                }
+            }
+        });
+    }
+
+    public void cancel(final int deviceId, final int widgetId) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                PendingDevice device = pendingDevices.get(deviceId);
+                if (device == null) {
+                    return;
+                }
+                device.confirmations.remove(widgetId);
+                if (device.confirmations.isEmpty() && !device.isRequestInFlight) {
+                    if (device.nextTick != null) {
+                        device.nextTick.cancel(false);
+                    }
+                    pendingDevices.remove(deviceId);
+                }
+            }
+        });
+    }
+
+    private void scheduleTick(final PendingDevice device, long delay) {
+        if (device.nextTick != null) {
+            device.nextTick.cancel(false);
+        }
+        device.nextTick = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                tick(device);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick(final PendingDevice device) {
+        device.nextTick = null;
+        if (device.confirmations.isEmpty()) {
+            pendingDevices.remove(device.deviceId);
+            return;
+        }
+
+        device.isRequestInFlight = true;
+        DevicesAPI devicesAPI = new DevicesAPI();
+        devicesAPI.getDeviceInfoGeneral(device.deviceId, device.context, new OnAPITaskComplete() {
+            @Override
+            public void onSuccess(final JSONObject response, final HashMap<String, String> authData) {
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDeviceInfo(device, response, authData, null);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(final ANError error) {
+                scheduler.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDeviceInfo(device, null, null, error);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onDeviceInfo(PendingDevice device, JSONObject response, HashMap<String, String> authData, ANError error) {
+        device.isRequestInFlight = false;
+        Context context = device.context;
+        long now = SystemClock.elapsedRealtime();
+        MyDBHandler db = new MyDBHandler(context);
+
+        String confirmedState = null, confirmedStateValueDim = null, confirmedStateValueRGB = null;
+
+        Iterator<PendingConfirmation> iterator = device.confirmations.values().iterator();
+        while (iterator.hasNext()) {
+            PendingConfirmation confirmation = iterator.next();
+            boolean isTimedOut = (now - confirmation.startedAt) >= (TIMEOUT - TIMEOUT_TOLERANCE);
+
+            // Widget has been removed meanwhile.
+            if (db.findWidgetInfoDevice(confirmation.widgetId) == null) {
+                iterator.remove();
+                continue;
+            }
+
+            if (response == null) {
+                if (isTimedOut) {
+                    showActionError(context);
+                    deliverError(confirmation.callBack, error);
+                    iterator.remove();
+                }
+                continue;
+            }
+
+            try {
+                String reqState = String.valueOf(confirmation.method);
+                String newState = response.optString("state");
+
+                JSONArray stateValues = response.getJSONArray("statevalues");
+                String stateValueRGB = "", stateValueDim = "";
+                for (int j = 0; j < stateValues.length(); j++) {
+                    JSONObject stateAndValue = stateValues.getJSONObject(j);
+                    String sState = stateAndValue.optString("state");
+                    if (Integer.parseInt(sState, 10) == 16) {
+                        stateValueDim = stateAndValue.optString("value");
+                    }
+                    if (Integer.parseInt(sState, 10) == 1024) {
+                        stateValueRGB = stateAndValue.optString("value");
+                    }
+                }
+
+                boolean isConfirmed;
+                if (confirmation.method == 16) {
+                    Integer dimValueReq = Integer.parseInt(confirmation.requestedValues.get("stateValue").toString(), 10);
+                    Boolean isEqualDimValueEqual = false;
+                    if (!stateValueDim.trim().isEmpty()) {
+                        isEqualDimValueEqual = dimValueReq == Integer.parseInt(stateValueDim, 10);
+                    }
+                    isConfirmed = newState.equals(reqState) && isEqualDimValueEqual;
+                } else if (confirmation.method == 1024) {
+                    Boolean isEqual = false;
+                    if (!stateValueRGB.trim().isEmpty()) {
+                        DevicesUtilities du = new DevicesUtilities();
+                        int c = Color.parseColor(du.getMainColorRGB(Integer.parseInt(stateValueRGB)));
+                        int rReq = Integer.parseInt(confirmation.requestedValues.get("r").toString(), 10);
+                        int gReq = Integer.parseInt(confirmation.requestedValues.get("g").toString(), 10);
+                        int bReq = Integer.parseInt(confirmation.requestedValues.get("b").toString(), 10);
+                        isEqual = Color.red(c) == rReq && Color.green(c) == gReq && Color.blue(c) == bReq;
+                    }
+                    isConfirmed = isEqual;
+                } else {
+                    isConfirmed = newState.equals(reqState);
+                }
+
+                if (isConfirmed) {
+                    String secStateValue = confirmation.method == 16 || confirmation.method == 1024 ? stateValueRGB : null;
+                    db.updateDeviceState(newState, confirmation.widgetId, stateValueDim, secStateValue);
+                    confirmedState = newState;
+                    confirmedStateValueDim = stateValueDim;
+                    confirmedStateValueRGB = secStateValue;
+                    deliverSuccess(confirmation.callBack, response, authData);
+                    iterator.remove();
+                } else if (isTimedOut) {
+                    if (confirmation.method == 16 || confirmation.method == 1024) {
+                        db.updateDeviceState(newState, confirmation.widgetId, stateValueDim, stateValueRGB);
+                    }
+                    showActionError(context);
+                    deliverSuccess(confirmation.callBack, response, authData);
+                    iterator.remove();
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                if (isTimedOut) {
+                    showActionError(context);
+                    deliverSuccess(confirmation.callBack, response, authData);
+                    iterator.remove();
+                }
+            }
+        }
+
+        if (confirmedState != null) {
+            fanOutConfirmedState(device, db, confirmedState, confirmedStateValueDim, confirmedStateValueRGB);
+        }
+
+        if (device.confirmations.isEmpty()) {
+            pendingDevices.remove(device.deviceId);
+            return;
+        }
+
+        long earliestDeadline = Long.MAX_VALUE;
+        for (PendingConfirmation confirmation : device.confirmations.values()) {
+            earliestDeadline = Math.min(earliestDeadline, confirmation.startedAt + TIMEOUT);
+        }
+        long delay = Math.max(0, Math.min(device.interval, earliestDeadline - now));
+        device.interval = Math.min(device.interval * 2, MAX_INTERVAL);
+        scheduleTick(device, delay);
+    }
+
+    /**
+     * Other widgets showing the same device, that are not waiting for a confirmation themselves,
+     * should show the new state as well. Thermostat widgets are left alone, their rows hold mode
+     * and temperature rather than on/off and dim state.
+     */
+    private void fanOutConfirmedState(PendingDevice device, MyDBHandler db, String state, String stateValue, String secStateValue) {
+        final Context context = device.context;
+        final ArrayList<Integer> widgetsToUpdate = new ArrayList<Integer>();
+        ArrayList<DeviceInfo> widgets = db.getAllWidgetsWithDeviceId(device.deviceId);
+        for (DeviceInfo widgetInfo : widgets) {
+            int widgetId = widgetInfo.getWidgetId();
+            if (device.confirmations.containsKey(widgetId)) {
+                continue;
+            }
+            if (SupportedMethods.has(widgetInfo.getDeviceMethods(), SupportedMethods.THERMOSTAT)) {
+                continue;
+            }
+            if (state.equals(widgetInfo.getState()) && String.valueOf(stateValue).equals(String.valueOf(widgetInfo.getDeviceStateValue()))) {
+                continue;
+            }
+            db.updateDeviceState(state, widgetId, stateValue, secStateValue == null ? widgetInfo.getSecondaryStateValue() : secStateValue);
+            widgetsToUpdate.add(widgetId);
+        }
+        if (widgetsToUpdate.isEmpty()) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                WidgetsUpdater wUpdater = new WidgetsUpdater();
+                for (Integer widgetId : widgetsToUpdate) {
+                    wUpdater.updateUIWidgetDevice(widgetId, context, new HashMap());
+                }
+            }
+        });
+    }
+
+    private void showActionError(final Context context) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, context.getResources().getString(R.string.reserved_widget_android_toast_deviceActionError), Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    private void deliverSuccess(final OnAPITaskComplete callBack, final JSONObject response, final HashMap<String, String> authData) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callBack.onSuccess(response, authData);
+            }
+        });
+    }
+
+    private void deliverError(final OnAPITaskComplete callBack, final ANError error) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callBack.onError(error);
+            }
+        });
+    }
+}
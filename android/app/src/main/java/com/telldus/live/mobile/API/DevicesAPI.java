@@ -20,9 +20,6 @@
 package com.telldus.live.mobile.API;
 
 import android.content.Context;
-import android.graphics.Color;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 import android.appwidget.AppWidgetManager;
@@ -37,25 +34,21 @@ import com.telldus.live.mobile.Database.MyDBHandler;
 import com.telldus.live.mobile.Model.DeviceInfo;
 import com.telldus.live.mobile.NewOnOffWidget;
 import com.telldus.live.mobile.Utility.Constants;
-import com.telldus.live.mobile.Utility.DevicesUtilities;
-import com.telldus.live.mobile.Utility.HandlerRunnablePair;
 import com.telldus.live.mobile.R;
 
+import java.util.ArrayList;
 import java.util.concurrent.Callable;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 public class DevicesAPI {
     private static Integer supportedMethodsAggreg = Constants.supportedMethods;
-
-    private static Map<String, Map> deviceInfoPendingCheckList = new HashMap<String, Map>();
-    Runnable runnableDeviceInfoCheck;
-    private int runnableDeviceInfoCheckCount = 0;
-    private long runnableDeviceInfoCheckInterval = 2000;
-    private long runnableDeviceInfoCheckMaxTimeout = 10000;
+    // Accessed only on the main thread, where the API callbacks are delivered.
+    private static boolean isSyncingWidgetDeviceStates = false;
 
     public void setDeviceState(final Integer deviceId, final Integer method, final Integer stateValue, final int widgetId, final Context context, String tag, final OnAPITaskComplete callBack) {
         String params = "/device/command?id="+deviceId+"&method="+method+"&value="+stateValue;
@@ -67,33 +60,9 @@ public class DevicesAPI {
                     String status = response.optString("status");
                     if (!status.isEmpty() && status != null && status.equalsIgnoreCase("success")) {
                         if (method.intValue() != 32) {
-                            removeHandlerRunnablePair(deviceId, widgetId);
-                            final Handler handlerDeviceInfoCheck = new Handler(Looper.getMainLooper());
-                            runnableDeviceInfoCheck = new Runnable(){
-                                @Override
-                                public void run() {
-                                    // Check if socket has already updated.
-                                    MyDBHandler db = new MyDBHandler(context);
-                                    DeviceInfo info = db.findWidgetInfoDevice(widgetId);
-                                    Boolean reset = runnableDeviceInfoCheckCount == ((int) (runnableDeviceInfoCheckMaxTimeout / runnableDeviceInfoCheckInterval)) - 1;
-
-                                    if (info != null) {
-                                        Map stateValueMap = new HashMap<String, Object>();
-                                        stateValueMap.put("stateValue", stateValue);
-                                        getDeviceInfo(deviceId, method, stateValueMap, widgetId, reset, context, callBack);
-                                    }
-                                    handlerDeviceInfoCheck.postDelayed(runnableDeviceInfoCheck, runnableDeviceInfoCheckInterval);
-                                    runnableDeviceInfoCheckCount++;
-                                }
-                            };
-                            String key = String.valueOf(deviceId)+String.valueOf(widgetId);
-                            handlerDeviceInfoCheck.postDelayed(runnableDeviceInfoCheck, runnableDeviceInfoCheckInterval);
-                            Map<String, HandlerRunnablePair> handlerRunnableHashMap = new HashMap<String, HandlerRunnablePair>();
-                            HandlerRunnablePair handlerRunnablePair = new HandlerRunnablePair(handlerDeviceInfoCheck, runnableDeviceInfoCheck);
-                            handlerRunnablePair.setRunnable(runnableDeviceInfoCheck);
-                            handlerRunnablePair.setHandler(handlerDeviceInfoCheck);
-                            handlerRunnableHashMap.put("HandlerRunnablePair", handlerRunnablePair);
-                            deviceInfoPendingCheckList.put(key, handlerRunnableHashMap);
+                            Map stateValueMap = new HashMap<String, Object>();
+                            stateValueMap.put("stateValue", stateValue);
+                            DeviceStateConfirmationPoller.getInstance().confirm(context, deviceId, widgetId, method, stateValueMap, callBack);
                         }
                     } else {
                         Toast.makeText(context, context.getResources().getString(R.string.reserved_widget_android_toast_deviceActionError), Toast.LENGTH_LONG).show();
@@ -130,31 +99,7 @@ public class DevicesAPI {
                     String status = response.optString("status");
                     if (!status.isEmpty() && status != null && status.equalsIgnoreCase("success")) {
                         if (method.intValue() != 32) {
-                            removeHandlerRunnablePair(deviceId, widgetId);
-                            final Handler handlerDeviceInfoCheck = new Handler(Looper.getMainLooper());
-                            runnableDeviceInfoCheck = new Runnable(){
-                                @Override
-                                public void run() {
-                                    // Check if socket has already updated.
-                                    MyDBHandler db = new MyDBHandler(context);
-                                    DeviceInfo info = db.findWidgetInfoDevice(widgetId);
-                                    Boolean reset = runnableDeviceInfoCheckCount == ((int) (runnableDeviceInfoCheckMaxTimeout / runnableDeviceInfoCheckInterval)) - 1;
-
-                                    if (info != null) {
-                                        getDeviceInfo(deviceId, method, rgb, widgetId, reset, context, callBack);
-                                    }
-                                    handlerDeviceInfoCheck.postDelayed(runnableDeviceInfoCheck, runnableDeviceInfoCheckInterval);
-                                    runnableDeviceInfoCheckCount++;
-                                }
-                            };
-                            String key = String.valueOf(deviceId)+String.valueOf(widgetId);
-                            handlerDeviceInfoCheck.postDelayed(runnableDeviceInfoCheck, runnableDeviceInfoCheckInterval);
-                            Map<String, HandlerRunnablePair> handlerRunnableHashMap = new HashMap<String, HandlerRunnablePair>();
-                            HandlerRunnablePair handlerRunnablePair = new HandlerRunnablePair(handlerDeviceInfoCheck, runnableDeviceInfoCheck);
-                            handlerRunnablePair.setRunnable(runnableDeviceInfoCheck);
-                            handlerRunnablePair.setHandler(handlerDeviceInfoCheck);
-                            handlerRunnableHashMap.put("HandlerRunnablePair", handlerRunnablePair);
-                            deviceInfoPendingCheckList.put(key, handlerRunnableHashMap);
+                            DeviceStateConfirmationPoller.getInstance().confirm(context, deviceId, widgetId, method, rgb, callBack);
                         }
                     } else {
                         Toast.makeText(context, context.getResources().getString(R.string.reserved_widget_android_toast_deviceActionError), Toast.LENGTH_LONG).show();
@@ -174,154 +119,90 @@ public class DevicesAPI {
         });
     }
 
-    public void getDeviceInfo(final Integer deviceId, final Integer requestedState, Map stateValueMap, final int widgetId, final Boolean reset, final Context context, final OnAPITaskComplete callBack) {
-        String params =  "/device/info?id="+deviceId+"+&supportedMethods="+supportedMethodsAggreg;
+    public void getDeviceInfoGeneral(final Integer deviceId, final Context context, final OnAPITaskComplete callBack) {
+        String params = "/device/info?id=" + deviceId + "+&supportedMethods=" + supportedMethodsAggreg;
         API endPoints = new API();
         endPoints.callEndPoint(context, params, "DeviceInfo", new OnAPITaskComplete() {
             @Override
             public void onSuccess(JSONObject response, HashMap<String, String> authData) {
-                try {
-                    String key = String.valueOf(deviceId)+String.valueOf(widgetId);
-                    Map<String, HandlerRunnablePair> finishedHandlerRunnableHash = deviceInfoPendingCheckList.get(key);
+                callBack.onSuccess(response, authData);
+            }
+
+            @Override
+            public void onError(ANError error) {
+                callBack.onError(error);
+            }
+        });
+    }
 
-                    MyDBHandler db = new MyDBHandler(context);
-                    DeviceInfo info = db.findWidgetInfoDevice(widgetId);
+    /**
+     * Fetches the states of all the devices of the current account in one request, and stores them
+     * for every device widget in a single transaction. Thermostat widgets are not covered, they also
+     * depend on sensor data and are refreshed separately.
+     *
+     * "callBack" receives the list response, with "widgetsUpdated" set to the number of widgets whose state changed.
+     */
+    public void syncWidgetDeviceStates(final Context context, final OnAPITaskComplete callBack) {
+        if (isSyncingWidgetDeviceStates) {
+            return;
+        }
+        isSyncingWidgetDeviceStates = true;
 
-                    if (info != null && finishedHandlerRunnableHash != null) {
-                        String reqState = String.valueOf(requestedState);
-                        String newState = response.optString("state");
+        String params = "/devices/list?supportedMethods=" + supportedMethodsAggreg + "&includeIgnored=1";
+        API endPoints = new API();
+        endPoints.callEndPoint(context, params, "DevicesStatesSync", new OnAPITaskComplete() {
+            @Override
+            public void onSuccess(JSONObject response, HashMap<String, String> authData) {
+                isSyncingWidgetDeviceStates = false;
+                try {
+                    JSONArray deviceList = response.getJSONArray("device");
+                    ArrayList<DeviceInfo> devices = new ArrayList<DeviceInfo>();
+                    for (int i = 0; i < deviceList.length(); i++) {
+                        JSONObject curObj = deviceList.getJSONObject(i);
 
-                        JSONArray stateValues = response.getJSONArray("statevalues");
-                        String stateValueRGB = "", stateValueDim = "";
+                        String stateValueDim = "", stateValueRGB = null;
+                        JSONArray stateValues = curObj.optJSONArray("stateValues");
                         if (stateValues != null) {
                             for (int j = 0; j < stateValues.length(); j++) {
                                 JSONObject stateAndValue = stateValues.getJSONObject(j);
-                                String sState = stateAndValue.optString("state");
-                                if (Integer.parseInt(sState, 10) == 16) {
+                                int sState = stateAndValue.optInt("state");
+                                if (sState == 16) {
                                     stateValueDim = stateAndValue.optString("value");
                                 }
-                                if (Integer.parseInt(sState, 10) == 1024) {
+                                if (sState == 1024) {
                                     stateValueRGB = stateAndValue.optString("value");
                                 }
                             }
                         }
 
-                        if (requestedState == 16) {
-
-                            Integer dimValueReq = Integer.parseInt(stateValueMap.get("stateValue").toString(), 10);
-                            Boolean isEqualDimValueEqual = false;
-                            if (stateValueDim != null && !stateValueDim.trim().isEmpty()) {
-                                isEqualDimValueEqual = dimValueReq == Integer.parseInt(stateValueDim, 10);
-                            }
-
-                            if (newState.equals(reqState) && isEqualDimValueEqual) {
-                                db.updateDeviceState(newState, widgetId, stateValueDim, stateValueRGB);
-                                removeHandlerRunnablePair(deviceId, widgetId);
-                                callBack.onSuccess(response, authData);
-                                return;
-                            }
-                            if (reset && (!newState.equals(reqState) || !isEqualDimValueEqual)) {
-                                db.updateDeviceState(newState, widgetId, stateValueDim, stateValueRGB);
-                                Toast.makeText(context, context.getResources().getString(R.string.reserved_widget_android_toast_deviceActionError), Toast.LENGTH_LONG).show();
-                                removeHandlerRunnablePair(deviceId, widgetId);
-                                callBack.onSuccess(response, authData);
-                                return;
-                            }
-                        } else if (requestedState == 1024) {
-                            Boolean isEqual = false;
-                            if (stateValueRGB != null && !stateValueRGB.trim().isEmpty()) {
-                                DevicesUtilities du = new DevicesUtilities();
-                                int c = Color.parseColor(du.getMainColorRGB(Integer.parseInt(stateValueRGB)));
-                                int rRes = Color.red(c);
-                                int gRes = Color.green(c);
-                                int bRes = Color.blue(c);
-
-                                int rReq = Integer.parseInt(stateValueMap.get("r").toString(), 10);
-                                int gReq = Integer.parseInt(stateValueMap.get("g").toString(), 10);
-                                int bReq = Integer.parseInt(stateValueMap.get("b").toString(), 10);
-
-                                isEqual = rRes == rReq && gRes == gReq && bRes == bReq;
-                            }
-
-                            if (isEqual) {
-                                db.updateDeviceState(newState, widgetId, stateValueDim, stateValueRGB);
-                                removeHandlerRunnablePair(deviceId, widgetId);
-                                callBack.onSuccess(response, authData);
-                                return;
-                            }
-                            if (reset && !isEqual) {
-                                db.updateDeviceState(newState, widgetId, stateValueDim, stateValueRGB);
-                                Toast.makeText(context, context.getResources().getString(R.string.reserved_widget_android_toast_deviceActionError), Toast.LENGTH_LONG).show();
-                                removeHandlerRunnablePair(deviceId, widgetId);
-                                callBack.onSuccess(response, authData);
-                                return;
-                            }
-                        } else {
-                            if (newState.equals(reqState)) {
-                                db.updateDeviceState(newState, widgetId, stateValueDim, null);
-                                removeHandlerRunnablePair(deviceId, widgetId);
-                                callBack.onSuccess(response, authData);
-                                return;
-                            }
-                            if (reset && !newState.equals(reqState)) {
-                                Toast.makeText(context, context.getResources().getString(R.string.reserved_widget_android_toast_deviceActionError), Toast.LENGTH_LONG).show();
-                                removeHandlerRunnablePair(deviceId, widgetId);
-                                callBack.onSuccess(response, authData);
-                                return;
-                            }
-                        }
+                        DeviceInfo device = new DeviceInfo();
+                        device.setDeviceId(curObj.getInt("id"));
+                        device.setState(curObj.optString("state"));
+                        device.setDeviceStateValue(stateValueDim);
+                        device.setSecondaryStateValue(stateValueRGB);
+                        devices.add(device);
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    if (reset) {
+
+                    PrefManager prefManager = new PrefManager(context);
+                    String userId = prefManager.getUserId();
+                    int widgetsUpdated = 0;
+                    if (userId != null) {
                         MyDBHandler db = new MyDBHandler(context);
-                        Toast.makeText(context, context.getResources().getString(R.string.reserved_widget_android_toast_deviceActionError), Toast.LENGTH_LONG).show();
-                        removeHandlerRunnablePair(deviceId, widgetId);
-                        callBack.onSuccess(response, authData);
+                        widgetsUpdated = db.updateDeviceStates(devices, userId);
                     }
-                };
-            }
-            @Override
-            public void onError(ANError error) {
-                if (reset) {
-                    MyDBHandler db = new MyDBHandler(context);
-                    Toast.makeText(context, context.getResources().getString(R.string.reserved_widget_android_toast_deviceActionError), Toast.LENGTH_LONG).show();
-                    removeHandlerRunnablePair(deviceId, widgetId);
-                    callBack.onError(error);
+                    response.put("widgetsUpdated", widgetsUpdated);
+                    callBack.onSuccess(response, authData);
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                    callBack.onError(new ANError(e));
                 }
             }
-        });
-    }
-
-    public void removeHandlerRunnablePair(int deviceId, int widgetId) {
-        String key = String.valueOf(deviceId)+String.valueOf(widgetId);
-        Map<String, HandlerRunnablePair> finishedHandlerRunnableHash = deviceInfoPendingCheckList.get(key);
-        if (finishedHandlerRunnableHash != null) {
-            HandlerRunnablePair finishedHandlerRunnablePair = finishedHandlerRunnableHash.get("HandlerRunnablePair");
-            if (finishedHandlerRunnablePair != null) {
-                Runnable finishedRunnable = finishedHandlerRunnablePair.getRunnable();
-                Handler finishedHandler =  finishedHandlerRunnablePair.getHandler();
-                finishedHandler.removeCallbacks(finishedRunnable);
-                finishedHandlerRunnableHash.remove("HandlerRunnablePair");
-                deviceInfoPendingCheckList.remove(key);
-                runnableDeviceInfoCheckCount = 0;
-            }
-        }
-    }
-
-    public void getDeviceInfoGeneral(final Integer deviceId, final Context context, final OnAPITaskComplete callBack) {
-        String params = "/device/info?id=" + deviceId + "+&supportedMethods=" + supportedMethodsAggreg;
-        API endPoints = new API();
-        endPoints.callEndPoint(context, params, "DeviceInfo", new OnAPITaskComplete() {
-            @Override
-            public void onSuccess(JSONObject response, HashMap<String, String> authData) {
-                callBack.onSuccess(response, authData);
-            }
 
             @Override
             public void onError(ANError error) {
+                isSyncingWidgetDeviceStates = false;
                 callBack.onError(error);
             }
         });
     }
-}
\ No newline at end of file
+}
@@ -13,6 +13,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 public class GatewaysAPI {
@@ -30,6 +31,7 @@ public class GatewaysAPI {
 
                     MyDBHandler db = new MyDBHandler(context);
 
+                    ArrayList<GatewayInfo> gateways = new ArrayList<GatewayInfo>();
                     for (int i = 0; i < clients.length(); i++) {
                         JSONObject curObj = clients.getJSONObject(i);
                         String timezone = curObj.getString("timezone");
@@ -39,8 +41,9 @@ public class GatewaysAPI {
                                 userUuid,
                                 timezone
                         );
-                        db.addGatewaysInfo(gatewayInfo);
+                        gateways.add(gatewayInfo);
                     }
+                    db.addGatewaysInfo(gateways);
                 } catch (JSONException e) {
 
                 }
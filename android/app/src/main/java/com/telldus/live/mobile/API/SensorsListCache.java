@@ -0,0 +1,177 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.API;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.androidnetworking.error.ANError;
+
+import com.telldus.live.mobile.Database.PrefManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Short lived, process wide snapshot of "/sensors/list", shared by all the widgets that need it.
+ *
+ * Concurrent requests for the list while it is being fetched wait for the same download, and sensors
+ * are indexed so that a widget can look up its own sensor without scanning the whole list.
+ */
+public class SensorsListCache {
+    private static final String PARAMS = "/sensors/list?includeValues=1&includeScale=1";
+    private static final long TTL = 30 * 1000;
+
+    private static SensorsListCache instance;
+
+    private JSONObject response;
+    private String userId;
+    private long fetchedAt = 0;
+    private Map<String, JSONObject> sensorsByClientAndSensorId = new HashMap<String, JSONObject>();
+    private Map<Integer, JSONObject> sensorsById = new HashMap<Integer, JSONObject>();
+
+    private boolean isFetching = false;
+    private ArrayList<OnAPITaskComplete> pendingCallbacks = new ArrayList<OnAPITaskComplete>();
+
+    public static synchronized SensorsListCache getInstance() {
+        if (instance == null) {
+            instance = new SensorsListCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Delivers the sensors list, from the snapshot if it is fresh, else from a new download.
+     */
+    public void getSensorsList(Context context, String tag, final OnAPITaskComplete callBack) {
+        final String currentUserId = new PrefManager(context).getUserId();
+        JSONObject fresh;
+        synchronized (this) {
+            fresh = getFreshResponse(currentUserId);
+            if (fresh == null) {
+                pendingCallbacks.add(callBack);
+                if (isFetching) {
+                    return;
+                }
+                isFetching = true;
+            }
+        }
+        if (fresh != null) {
+            callBack.onSuccess(fresh, new HashMap<String, String>());
+            return;
+        }
+
+        SensorsAPI sensorsAPI = new SensorsAPI();
+        sensorsAPI.getSensorsList(PARAMS, context, tag, new OnAPITaskComplete() {
+            @Override
+            public void onSuccess(JSONObject result, HashMap<String, String> authData) {
+                ArrayList<OnAPITaskComplete> callBacks;
+                synchronized (SensorsListCache.this) {
+                    setSnapshot(result, currentUserId);
+                    callBacks = takePendingCallbacks();
+                }
+                for (OnAPITaskComplete cb : callBacks) {
+                    cb.onSuccess(result, authData);
+                }
+            }
+
+            @Override
+            public void onError(ANError error) {
+                ArrayList<OnAPITaskComplete> callBacks;
+                synchronized (SensorsListCache.this) {
+                    callBacks = takePendingCallbacks();
+                }
+                for (OnAPITaskComplete cb : callBacks) {
+                    cb.onError(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sensor as listed in the snapshot, matched on the controller(client) and the sensor id on that controller.
+     */
+    public synchronized JSONObject findSensor(int clientId, int sensorId) {
+        return sensorsByClientAndSensorId.get(clientId + ":" + sensorId);
+    }
+
+    /**
+     * Sensor as listed in the snapshot, matched on its Telldus Live id. Returns null if the snapshot is not fresh.
+     */
+    public synchronized JSONObject findFreshSensorById(Context context, int id) {
+        if (getFreshResponse(new PrefManager(context).getUserId()) == null) {
+            return null;
+        }
+        return sensorsById.get(id);
+    }
+
+    public synchronized void invalidate() {
+        fetchedAt = 0;
+    }
+
+    private JSONObject getFreshResponse(String currentUserId) {
+        if (response == null || (SystemClock.elapsedRealtime() - fetchedAt) > TTL) {
+            return null;
+        }
+        if (userId == null || !userId.equals(currentUserId)) {
+            return null;
+        }
+        return response;
+    }
+
+    private void setSnapshot(JSONObject result, String currentUserId) {
+        Map<String, JSONObject> byClientAndSensorId = new HashMap<String, JSONObject>();
+        Map<Integer, JSONObject> byId = new HashMap<Integer, JSONObject>();
+        JSONArray sensorList = result.optJSONArray("sensor");
+        if (sensorList == null) {
+            // Most likely an error response, do not cache it.
+            return;
+        }
+        for (int i = 0; i < sensorList.length(); i++) {
+            JSONObject sensor = sensorList.optJSONObject(i);
+            if (sensor == null) {
+                continue;
+            }
+            if (sensor.has("client") && sensor.has("sensorId")) {
+                byClientAndSensorId.put(sensor.optInt("client") + ":" + sensor.optInt("sensorId"), sensor);
+            }
+            if (sensor.has("id")) {
+                byId.put(sensor.optInt("id"), sensor);
+            }
+        }
+
+        response = result;
+        userId = currentUserId;
+        fetchedAt = SystemClock.elapsedRealtime();
+        sensorsByClientAndSensorId = byClientAndSensorId;
+        sensorsById = byId;
+    }
+
+    private ArrayList<OnAPITaskComplete> takePendingCallbacks() {
+        ArrayList<OnAPITaskComplete> callBacks = pendingCallbacks;
+        pendingCallbacks = new ArrayList<OnAPITaskComplete>();
+        isFetching = false;
+        return callBacks;
+    }
+}
@@ -36,7 +36,6 @@ import com.telldus.live.mobile.API.OnAPITaskComplete;
 import com.telldus.live.mobile.Database.MyDBHandler;
 import com.telldus.live.mobile.Model.DeviceInfo;
 import com.telldus.live.mobile.NewOnOffWidget;
-import com.telldus.live.mobile.Utility.HandlerRunnablePair;
 import com.telldus.live.mobile.R;
 import com.telldus.live.mobile.TransactionWebView;
 
@@ -22,12 +22,11 @@ package com.telldus.live.mobile.BroadcastReceiver;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.os.Build;
 import android.os.Handler;
 import android.widget.Toast;
 
 import com.telldus.live.mobile.Database.PrefManager;
-import com.telldus.live.mobile.ServiceBackground.RestartSensorUpdateAlarmManager;
+import com.telldus.live.mobile.Utility.SensorUpdateAlarmManager;
 
 public class BootCompleteReceiver extends BroadcastReceiver {
     PrefManager prefManager;
@@ -38,11 +37,9 @@ public class BootCompleteReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         prefManager = new PrefManager(context);
 
-        Intent restartSensorUpdateAlarmManager = new Intent(context, RestartSensorUpdateAlarmManager.class);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            context.startForegroundService(restartSensorUpdateAlarmManager);
-        } else {
-            context.startService(restartSensorUpdateAlarmManager);
-        }
+        // After boot, periodic jobs are persisted by the system and only the short interval alarms need to be set
+        // again. After an app update(MY_PACKAGE_REPLACED), widgets scheduled by the older version are moved to buckets.
+        SensorUpdateAlarmManager sensorUpdateAlarmManager = new SensorUpdateAlarmManager(context);
+        sensorUpdateAlarmManager.restartAlarms();
     }
 }
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.BroadcastReceiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.telldus.live.mobile.Utility.SensorUpdateAlarmManager;
+
+/**
+ * Receives the exact alarms set by SensorUpdateAlarmManager, for buckets too short to be run as periodic jobs.
+ */
+public class SensorUpdateAlarmReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        int bucketInterval = intent.getIntExtra(SensorUpdateAlarmManager.EXTRA_BUCKET_INTERVAL, -1);
+        if (bucketInterval == -1) {
+            return;
+        }
+
+        // Keep the process alive until the widgets have got their data.
+        final PendingResult pendingResult = goAsync();
+        SensorUpdateAlarmManager sensorUpdateAlarmManager = new SensorUpdateAlarmManager(context);
+        sensorUpdateAlarmManager.onBucketAlarm(bucketInterval, new Runnable() {
+            @Override
+            public void run() {
+                pendingResult.finish();
+            }
+        });
+    }
+}
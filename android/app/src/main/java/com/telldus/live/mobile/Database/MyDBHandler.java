@@ -22,20 +22,35 @@ package com.telldus.live.mobile.Database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.telldus.live.mobile.Model.DeviceInfo;
 import com.telldus.live.mobile.Model.GatewayInfo;
+import com.telldus.live.mobile.Model.SensorHistoryPoint;
 import com.telldus.live.mobile.Model.SensorInfo;
+import com.telldus.live.mobile.Utility.SupportedMethods;
 
 public class MyDBHandler extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 6;
+    private static final int DATABASE_VERSION = 8;
     private static final String DATABASE_NAME = "Telldus.db";
 
     private static final String TABLE_WIDGET_INFO_DEVICE = "WidgetInfoDevice";
@@ -79,8 +94,95 @@ public class MyDBHandler extends SQLiteOpenHelper {
     public static final String GATEWAYS_INFO_COLUMN_USER_UUID = "userUuid";
     public static final String GATEWAYS_INFO_COLUMN_TIMEZONE = "timezone";
 
+    // One connection(pool) for the whole process, see getDatabase.
+    private static MyDBHandler sharedHelper;
+    private static SQLiteDatabase sharedDatabase;
+    private static SQLiteStatement updateDeviceRowStatement;
+    private static SQLiteStatement updateSensorRowStatement;
+
+    private static final String[] DEVICE_COLUMNS = {
+            DEVICE_ID, DEVICE_NAME, DEVICE_STATE, DEVICE_METHODS, DEVICE_TYPE, DEVICE_STATE_VALUE, TRANSPARENT,
+            WIDGET_DEVICE_USER_ID, DEVICE_METHOD_REQUESTED, DEVICE_IS_SHOWING_STATUS, SENSOR_UPDATE_INTERVAL,
+            CLIENT_DEVICE_ID, CLIENT_ID, DEVICE_SECONDARY_STATE_VALUE, PRIMARY_SETTING, SECONDARY_SETTING,
+            REQUESTED_DEVICE_STATE_VALUE, REQUESTED_DEVICE_SECONDARY_STATE_VALUE, COLUMN_USER_UUID
+    };
+    private static final String[] SENSOR_COLUMNS = {
+            SENSOR_ID, SENSOR_NAME, SENSOR_VALUE_TYPE, SENSOR_UPDATE, SENSOR_VALUE, SENSOR_UNIT, SENSOR_ICON,
+            TRANSPARENT, WIDGET_SENSOR_USER_ID, SENSOR_UPDATE_INTERVAL, SENSOR_IS_UPDATING, CLIENT_ID, COLUMN_USER_UUID
+    };
+
+    private static WidgetInfoCache cache;
+
+    // Writes made within this window are committed together, see scheduleWrite.
+    private static final long WRITE_COALESCE_WINDOW_MS = 100;
+    private static final ScheduledExecutorService writeExecutor = Executors.newSingleThreadScheduledExecutor();
+    private static final Object pendingWritesLock = new Object();
+    private static Set<Integer> pendingDeviceWidgetIds = new LinkedHashSet<Integer>();
+    private static Set<Integer> pendingSensorWidgetIds = new LinkedHashSet<Integer>();
+    private static Map<String, GatewayInfo> pendingGateways = new LinkedHashMap<String, GatewayInfo>();
+    private static ArrayList<SensorHistorySample> pendingSensorHistory = new ArrayList<SensorHistorySample>();
+    private static boolean isWriteScheduled = false;
+
+    /**
+     * A sensor history value waiting to be written by writePending.
+     */
+    private static class SensorHistorySample {
+        final int sensorId;
+        final String name;
+        final String scale;
+        final long time;
+        final long scaledValue;
+
+        SensorHistorySample(int sensorId, String name, String scale, long time, long scaledValue) {
+            this.sensorId = sensorId;
+            this.name = name;
+            this.scale = scale;
+            this.time = time;
+            this.scaledValue = scaledValue;
+        }
+    }
+
     public MyDBHandler(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Every MyDBHandler instance uses the same database, opened on first use and kept open for the
+     * lifetime of the process, instead of opening and closing the file in each method.
+     * With WAL, SQLiteDatabase runs reads on separate connections of its pool, so lookups do not wait for writes.
+     */
+    private SQLiteDatabase getDatabase() {
+        synchronized (MyDBHandler.class) {
+            if (sharedDatabase == null || !sharedDatabase.isOpen()) {
+                if (sharedHelper == null) {
+                    sharedHelper = this;
+                }
+                sharedDatabase = sharedHelper.getWritableDatabase();
+                updateDeviceRowStatement = null;
+                updateSensorRowStatement = null;
+            }
+            return sharedDatabase;
+        }
+    }
+
+    private SQLiteStatement getUpdateDeviceRowStatement(SQLiteDatabase db) {
+        synchronized (MyDBHandler.class) {
+            if (updateDeviceRowStatement == null) {
+                updateDeviceRowStatement = db.compileStatement("UPDATE " + TABLE_WIDGET_INFO_DEVICE + " SET "
+                        + TextUtils.join(" = ?, ", DEVICE_COLUMNS) + " = ? WHERE " + WIDGET_ID_DEVICE + " = ?");
+            }
+            return updateDeviceRowStatement;
+        }
+    }
+
+    private SQLiteStatement getUpdateSensorRowStatement(SQLiteDatabase db) {
+        synchronized (MyDBHandler.class) {
+            if (updateSensorRowStatement == null) {
+                updateSensorRowStatement = db.compileStatement("UPDATE " + TABLE_WIDGET_INFO_SENSOR + " SET "
+                        + TextUtils.join(" = ?, ", SENSOR_COLUMNS) + " = ? WHERE " + WIDGET_ID_SENSOR + " = ?");
+            }
+            return updateSensorRowStatement;
+        }
     }
 
     @Override
@@ -110,6 +212,8 @@ public class MyDBHandler extends SQLiteOpenHelper {
         db.execSQL(CREATE_USER_TABLE);
         db.execSQL(CREATE_SENSOR_TABLE);
         this.createGatewaysInfoTable(db);
+        this.createWidgetInfoIndexes(db);
+        SensorHistoryStore.createTable(db);
     }
 
     public void createGatewaysInfoTable(SQLiteDatabase db) {
@@ -119,6 +223,13 @@ public class MyDBHandler extends SQLiteOpenHelper {
         db.execSQL(CREATE_GATEWAYS_INFO_TABLE);
     }
 
+    public void createWidgetInfoIndexes(SQLiteDatabase db) {
+        // The tables have no primary key, and the writer updates and deletes rows by widget id. Lookups by
+        // device/sensor id are served by WidgetInfoCache and do not need an index.
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_device_widget_id ON " + TABLE_WIDGET_INFO_DEVICE + "(" + WIDGET_ID_DEVICE + ")");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_sensor_widget_id ON " + TABLE_WIDGET_INFO_SENSOR + "(" + WIDGET_ID_SENSOR + ")");
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         if (oldVersion == 1 && newVersion == 2) {
@@ -245,6 +356,129 @@ public class MyDBHandler extends SQLiteOpenHelper {
             this.addClientIdToSensorsTable(db);
             this.addUserUuidToBothTables(db);
         }
+
+        if (oldVersion == 1 && newVersion == 7) {
+            addColumnIsUpdatingToSensorsTable(db);
+            addUpdateIntervalToDevicesTable(db);
+            addClientDeviceIdToDevicesTable(db);
+            addClientIdToDevicesTable(db);
+            addSecondaryStateValueTable(db);
+            addPrimarySettingToDevicesTable(db);
+            addSecondarySettingToDevicesTable(db);
+            addRequestedStatevalueToDevicesTable(db);
+            addRequestedSecStatevalueToDevicesTable(db);
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+        }
+        if (oldVersion == 2 && newVersion == 7) {
+            addUpdateIntervalToDevicesTable(db);
+            addClientDeviceIdToDevicesTable(db);
+            addClientIdToDevicesTable(db);
+            addSecondaryStateValueTable(db);
+            addPrimarySettingToDevicesTable(db);
+            addSecondarySettingToDevicesTable(db);
+            addRequestedStatevalueToDevicesTable(db);
+            addRequestedSecStatevalueToDevicesTable(db);
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+        }
+        if (oldVersion == 3 && newVersion == 7) {
+            addPrimarySettingToDevicesTable(db);
+            addSecondarySettingToDevicesTable(db);
+            addRequestedStatevalueToDevicesTable(db);
+            addRequestedSecStatevalueToDevicesTable(db);
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+        }
+        if (oldVersion == 4 && newVersion == 7) {
+            addRequestedStatevalueToDevicesTable(db);
+            addRequestedSecStatevalueToDevicesTable(db);
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+        }
+        if (oldVersion == 5 && newVersion == 7) {
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+        }
+        if (oldVersion == 6 && newVersion == 7) {
+            this.createWidgetInfoIndexes(db);
+        }
+
+        if (oldVersion == 1 && newVersion == 8) {
+            addColumnIsUpdatingToSensorsTable(db);
+            addUpdateIntervalToDevicesTable(db);
+            addClientDeviceIdToDevicesTable(db);
+            addClientIdToDevicesTable(db);
+            addSecondaryStateValueTable(db);
+            addPrimarySettingToDevicesTable(db);
+            addSecondarySettingToDevicesTable(db);
+            addRequestedStatevalueToDevicesTable(db);
+            addRequestedSecStatevalueToDevicesTable(db);
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+            SensorHistoryStore.createTable(db);
+        }
+        if (oldVersion == 2 && newVersion == 8) {
+            addUpdateIntervalToDevicesTable(db);
+            addClientDeviceIdToDevicesTable(db);
+            addClientIdToDevicesTable(db);
+            addSecondaryStateValueTable(db);
+            addPrimarySettingToDevicesTable(db);
+            addSecondarySettingToDevicesTable(db);
+            addRequestedStatevalueToDevicesTable(db);
+            addRequestedSecStatevalueToDevicesTable(db);
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+            SensorHistoryStore.createTable(db);
+        }
+        if (oldVersion == 3 && newVersion == 8) {
+            addPrimarySettingToDevicesTable(db);
+            addSecondarySettingToDevicesTable(db);
+            addRequestedStatevalueToDevicesTable(db);
+            addRequestedSecStatevalueToDevicesTable(db);
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+            SensorHistoryStore.createTable(db);
+        }
+        if (oldVersion == 4 && newVersion == 8) {
+            addRequestedStatevalueToDevicesTable(db);
+            addRequestedSecStatevalueToDevicesTable(db);
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+            SensorHistoryStore.createTable(db);
+        }
+        if (oldVersion == 5 && newVersion == 8) {
+            this.createGatewaysInfoTable(db);
+            this.addClientIdToSensorsTable(db);
+            this.addUserUuidToBothTables(db);
+            this.createWidgetInfoIndexes(db);
+            SensorHistoryStore.createTable(db);
+        }
+        if (oldVersion == 6 && newVersion == 8) {
+            this.createWidgetInfoIndexes(db);
+            SensorHistoryStore.createTable(db);
+        }
+        if (oldVersion == 7 && newVersion == 8) {
+            SensorHistoryStore.createTable(db);
+        }
     }
 
     public void addColumnIsUpdatingToSensorsTable(SQLiteDatabase db) {
@@ -304,11 +538,148 @@ public class MyDBHandler extends SQLiteOpenHelper {
         db.execSQL(ALTER_TABLE_SENSOR);
     }
 
-    public void addWidgetDevice(DeviceInfo mDeviceInfo) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    /**
+     * Rows are read from SQLite once, and then served from memory. Writes update the cache right away,
+     * and are written to SQLite in the background, see scheduleWrite.
+     */
+    private WidgetInfoCache getCache() {
+        synchronized (MyDBHandler.class) {
+            if (cache == null) {
+                WidgetInfoCache widgetInfoCache = new WidgetInfoCache();
+                SQLiteDatabase db = getDatabase();
+
+                Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_WIDGET_INFO_DEVICE, null);
+                while (cursor.moveToNext()) {
+                    widgetInfoCache.putDevice(readDeviceInfo(cursor));
+                }
+                cursor.close();
+
+                cursor = db.rawQuery("SELECT * FROM " + TABLE_WIDGET_INFO_SENSOR, null);
+                while (cursor.moveToNext()) {
+                    widgetInfoCache.putSensor(readSensorInfo(cursor));
+                }
+                cursor.close();
+
+                cursor = db.rawQuery("SELECT * FROM " + TABLE_GATEWAYS_INFO, null);
+                while (cursor.moveToNext()) {
+                    widgetInfoCache.putGateway(new GatewayInfo(cursor.getInt(0), cursor.getString(1), cursor.getString(2)));
+                }
+                cursor.close();
+
+                cache = widgetInfoCache;
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Queues the current(cached) rows of the given widgets to be written to SQLite.
+     *
+     * The writer waits WRITE_COALESCE_WINDOW_MS after the first queued write, and then writes everything
+     * queued so far in one transaction. A widget changed several times within the window is written once,
+     * with its latest values, and a widget no longer in the cache is deleted.
+     */
+    private void scheduleWrite(Collection<Integer> deviceWidgetIds, Collection<Integer> sensorWidgetIds, Collection<GatewayInfo> gateways) {
+        synchronized (pendingWritesLock) {
+            if (deviceWidgetIds != null) {
+                pendingDeviceWidgetIds.addAll(deviceWidgetIds);
+            }
+            if (sensorWidgetIds != null) {
+                pendingSensorWidgetIds.addAll(sensorWidgetIds);
+            }
+            if (gateways != null) {
+                for (GatewayInfo gatewayInfo : gateways) {
+                    pendingGateways.put(gatewayInfo.getId() + ":" + gatewayInfo.getUserUuid(), gatewayInfo);
+                }
+            }
+            if (isWriteScheduled) {
+                return;
+            }
+            isWriteScheduled = true;
+        }
+
+        writeExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+            }
+        }, WRITE_COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleSensorHistoryWrite(SensorHistorySample sample) {
+        synchronized (pendingWritesLock) {
+            pendingSensorHistory.add(sample);
+        }
+        scheduleWrite(null, null, null);
+    }
+
+    private void scheduleDeviceWrite(int widgetId) {
+        scheduleWrite(Collections.singletonList(widgetId), null, null);
+    }
+
+    private void scheduleSensorWrite(int widgetId) {
+        scheduleWrite(null, Collections.singletonList(widgetId), null);
+    }
+
+    private void writePending() {
+        Set<Integer> deviceWidgetIds;
+        Set<Integer> sensorWidgetIds;
+        Map<String, GatewayInfo> gateways;
+        ArrayList<SensorHistorySample> sensorHistory;
+        synchronized (pendingWritesLock) {
+            deviceWidgetIds = pendingDeviceWidgetIds;
+            sensorWidgetIds = pendingSensorWidgetIds;
+            gateways = pendingGateways;
+            pendingDeviceWidgetIds = new LinkedHashSet<Integer>();
+            pendingSensorWidgetIds = new LinkedHashSet<Integer>();
+            pendingGateways = new LinkedHashMap<String, GatewayInfo>();
+            sensorHistory = pendingSensorHistory;
+            pendingSensorHistory = new ArrayList<SensorHistorySample>();
+            isWriteScheduled = false;
+        }
+
+        WidgetInfoCache widgetInfoCache = getCache();
+        try {
+            SQLiteDatabase db = getDatabase();
+            db.beginTransaction();
+            try {
+                for (Integer widgetId : deviceWidgetIds) {
+                    writeDeviceRow(db, widgetId, widgetInfoCache.getDevice(widgetId));
+                }
+                for (Integer widgetId : sensorWidgetIds) {
+                    writeSensorRow(db, widgetId, widgetInfoCache.getSensor(widgetId));
+                }
+                for (GatewayInfo gatewayInfo : gateways.values()) {
+                    ContentValues values = new ContentValues();
+                    values.put(GATEWAYS_INFO_COLUMN_ID, gatewayInfo.getId());
+                    values.put(GATEWAYS_INFO_COLUMN_USER_UUID, gatewayInfo.getUserUuid());
+                    values.put(GATEWAYS_INFO_COLUMN_TIMEZONE, gatewayInfo.getTimezone());
+                    db.replace(TABLE_GATEWAYS_INFO, null, values);
+                }
+                if (!sensorHistory.isEmpty()) {
+                    for (SensorHistorySample sample : sensorHistory) {
+                        SensorHistoryStore.append(db, sample.sensorId, sample.name, sample.scale, sample.time, sample.scaledValue);
+                    }
+                    SensorHistoryStore.downsampleIfDue(db, System.currentTimeMillis() / 1000);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.e("MyDBHandler", "Failed to write widget info", e);
+        }
+    }
+
+    private void writeDeviceRow(SQLiteDatabase db, int widgetId, DeviceInfo mDeviceInfo) {
+        String[] whereArgs = {String.valueOf(widgetId)};
+        if (mDeviceInfo == null) {
+            db.delete(TABLE_WIDGET_INFO_DEVICE, WIDGET_ID_DEVICE+" = ?", whereArgs);
+            return;
+        }
 
         ContentValues values = new ContentValues();
-        values.put(WIDGET_ID_DEVICE, mDeviceInfo.getWidgetId());
+        values.put(WIDGET_ID_DEVICE, widgetId);
         values.put(DEVICE_ID, mDeviceInfo.getDeviceId());
         values.put(DEVICE_NAME, mDeviceInfo.getDeviceName());
         values.put(DEVICE_STATE, mDeviceInfo.getState());
@@ -329,16 +700,28 @@ public class MyDBHandler extends SQLiteOpenHelper {
         values.put(REQUESTED_DEVICE_SECONDARY_STATE_VALUE, mDeviceInfo.getRequestedSecStateValue());
         values.put(COLUMN_USER_UUID, mDeviceInfo.getUserUuid());
 
-        //Inserting Row
-        db.insert(TABLE_WIDGET_INFO_DEVICE, null, values);
-        db.close();
+        // Statements are only ever executed here, on the writer thread.
+        SQLiteStatement statement = getUpdateDeviceRowStatement(db);
+        statement.clearBindings();
+        for (int i = 0; i < DEVICE_COLUMNS.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(DEVICE_COLUMNS[i]));
+        }
+        statement.bindLong(DEVICE_COLUMNS.length + 1, widgetId);
+        if (statement.executeUpdateDelete() == 0) {
+            //Inserting Row
+            db.insert(TABLE_WIDGET_INFO_DEVICE, null, values);
+        }
     }
 
-    public void addWidgetSensor(SensorInfo mSensorInfo) {
-        SQLiteDatabase db = this.getWritableDatabase();
+    private void writeSensorRow(SQLiteDatabase db, int widgetId, SensorInfo mSensorInfo) {
+        String[] whereArgs = {String.valueOf(widgetId)};
+        if (mSensorInfo == null) {
+            db.delete(TABLE_WIDGET_INFO_SENSOR, WIDGET_ID_SENSOR+" = ?", whereArgs);
+            return;
+        }
 
         ContentValues values = new ContentValues();
-        values.put(WIDGET_ID_SENSOR, mSensorInfo.getWidgetId());
+        values.put(WIDGET_ID_SENSOR, widgetId);
         values.put(SENSOR_ID, mSensorInfo.getSensorId());
         values.put(SENSOR_NAME, mSensorInfo.getSensorName());
         values.put(SENSOR_VALUE_TYPE, mSensorInfo.getSensorDisplayType());
@@ -353,483 +736,373 @@ public class MyDBHandler extends SQLiteOpenHelper {
         values.put(CLIENT_ID, mSensorInfo.getClientId());
         values.put(COLUMN_USER_UUID, mSensorInfo.getUserUuid());
 
-        //Inserting Row
-        db.insert(TABLE_WIDGET_INFO_SENSOR, null, values);
-        db.close();
-    }
-
-    public void addGatewaysInfo(GatewayInfo gatewayInfo) {
-        SQLiteDatabase db = this.getWritableDatabase();
-
-        ContentValues values = new ContentValues();
-        values.put(GATEWAYS_INFO_COLUMN_ID, gatewayInfo.getId());
-        values.put(GATEWAYS_INFO_COLUMN_USER_UUID, gatewayInfo.getUserUuid());
-        values.put(GATEWAYS_INFO_COLUMN_TIMEZONE, gatewayInfo.getTimezone());
-        db.replace(TABLE_GATEWAYS_INFO, null, values);
-        db.close();
+        SQLiteStatement statement = getUpdateSensorRowStatement(db);
+        statement.clearBindings();
+        for (int i = 0; i < SENSOR_COLUMNS.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(SENSOR_COLUMNS[i]));
+        }
+        statement.bindLong(SENSOR_COLUMNS.length + 1, widgetId);
+        if (statement.executeUpdateDelete() == 0) {
+            //Inserting Row
+            db.insert(TABLE_WIDGET_INFO_SENSOR, null, values);
+        }
     }
 
-    public DeviceInfo findWidgetInfoDevice(int id) {
-        String query = "Select * FROM " + TABLE_WIDGET_INFO_DEVICE + " WHERE " + WIDGET_ID_DEVICE + " =  \"" + id + "\"";
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(query, null);
+    private DeviceInfo readDeviceInfo(Cursor cursor) {
         DeviceInfo r = new DeviceInfo();
-
-        if (cursor.moveToFirst()) {
-            cursor.moveToFirst();
-
-            r.setWidgetId(cursor.getInt(0));
-            r.setDeviceId(cursor.getInt(1));
-            r.setDeviceName(cursor.getString(2));
-            r.setState(cursor.getString(3));
-            r.setDeviceMethods(cursor.getInt(4));
-            r.setDeviceType(cursor.getString(5));
-            r.setDeviceStateValue(cursor.getString(6));
-            r.setTransparent(cursor.getString(7));
-            r.setUserId(cursor.getString(8));
-            r.setMethodRequested(cursor.getString(9));
-            r.setIsShowingStatus(cursor.getInt(10));
-            r.setUpdateInterval(cursor.getInt(11));
-            r.setClientDeviceid(cursor.getInt(12));
-            r.setClientId(cursor.getInt(13));
-            r.setSecondaryStateValue(cursor.getString(14));
-            r.setPrimarySetting(cursor.getString(15));
-            r.setSecondarySetting(cursor.getString(16));
-            int index17 = cursor.getColumnIndex(REQUESTED_DEVICE_STATE_VALUE);
-            r.setRequestedStateValue(index17 != -1 ? cursor.getString(index17) : "");
-            int index18 = cursor.getColumnIndex(REQUESTED_DEVICE_SECONDARY_STATE_VALUE);
-            r.setRequestedSecStateValue(index18 != -1 ? cursor.getString(index18) : "");
-            int index19 = cursor.getColumnIndex(COLUMN_USER_UUID);
-            r.setUserUuid(index19 != -1 ? cursor.getString(index19) : "");
-
-            cursor.close();
-        } else {
-            r = null;
-        }
-        db.close();
+        r.setWidgetId(cursor.getInt(0));
+        r.setDeviceId(cursor.getInt(1));
+        r.setDeviceName(cursor.getString(2));
+        r.setState(cursor.getString(3));
+        r.setDeviceMethods(cursor.getInt(4));
+        r.setDeviceType(cursor.getString(5));
+        r.setDeviceStateValue(cursor.getString(6));
+        r.setTransparent(cursor.getString(7));
+        r.setUserId(cursor.getString(8));
+        r.setMethodRequested(cursor.getString(9));
+        r.setIsShowingStatus(cursor.getInt(10));
+        r.setUpdateInterval(cursor.getInt(11));
+        r.setClientDeviceid(cursor.getInt(12));
+        r.setClientId(cursor.getInt(13));
+        r.setSecondaryStateValue(cursor.getString(14));
+        r.setPrimarySetting(cursor.getString(15));
+        r.setSecondarySetting(cursor.getString(16));
+        int index17 = cursor.getColumnIndex(REQUESTED_DEVICE_STATE_VALUE);
+        r.setRequestedStateValue(index17 != -1 ? cursor.getString(index17) : "");
+        int index18 = cursor.getColumnIndex(REQUESTED_DEVICE_SECONDARY_STATE_VALUE);
+        r.setRequestedSecStateValue(index18 != -1 ? cursor.getString(index18) : "");
+        int index19 = cursor.getColumnIndex(COLUMN_USER_UUID);
+        r.setUserUuid(index19 != -1 ? cursor.getString(index19) : "");
         return r;
     }
 
-    public SensorInfo findWidgetInfoSensor(int id) {
-        String query = "Select * FROM " + TABLE_WIDGET_INFO_SENSOR + " WHERE " + WIDGET_ID_SENSOR + " =  \"" + id + "\"";
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(query, null);
+    private SensorInfo readSensorInfo(Cursor cursor) {
         SensorInfo r = new SensorInfo();
-
-        if (cursor.moveToFirst()) {
-            cursor.moveToFirst();
-
-            r.setWidgetId(cursor.getInt(0));
-            r.setSensorId(cursor.getInt(1));
-            r.setSensorName(cursor.getString(2));
-            r.setSensorDisplayType(cursor.getString(3));
-            r.setSensorUpdate(cursor.getString(4));
-            r.setSensorValue(cursor.getString(5));
-            r.setSensorUnit(cursor.getString(6));
-            r.setSensorIcon(cursor.getString(7));
-            r.setTransparent(cursor.getString(8));
-            r.setUserId(cursor.getString(9));
-            r.setUpdateInterval(cursor.getInt(10));
-            r.setIsUpdating(cursor.getString(11));
-            int index12 = cursor.getColumnIndex(CLIENT_ID);
-            r.setClientId(index12 != -1 ? cursor.getInt(index12) : -1);
-            int index13 = cursor.getColumnIndex(COLUMN_USER_UUID);
-            r.setUserUuid(index13 != -1 ? cursor.getString(index13) : "");
-
-            cursor.close();
-        } else {
-            r = null;
-        }
-        db.close();
+        r.setWidgetId(cursor.getInt(0));
+        r.setSensorId(cursor.getInt(1));
+        r.setSensorName(cursor.getString(2));
+        r.setSensorDisplayType(cursor.getString(3));
+        r.setSensorUpdate(cursor.getString(4));
+        r.setSensorValue(cursor.getString(5));
+        r.setSensorUnit(cursor.getString(6));
+        r.setSensorIcon(cursor.getString(7));
+        r.setTransparent(cursor.getString(8));
+        r.setUserId(cursor.getString(9));
+        r.setUpdateInterval(cursor.getInt(10));
+        r.setIsUpdating(cursor.getString(11));
+        int index12 = cursor.getColumnIndex(CLIENT_ID);
+        r.setClientId(index12 != -1 ? cursor.getInt(index12) : -1);
+        int index13 = cursor.getColumnIndex(COLUMN_USER_UUID);
+        r.setUserUuid(index13 != -1 ? cursor.getString(index13) : "");
         return r;
     }
 
-    public GatewayInfo findCurrentAccountGatewaysInfo(int id, String userId) {
-        String query = "Select * FROM " + TABLE_GATEWAYS_INFO + " WHERE " + GATEWAYS_INFO_COLUMN_ID + " =  \"" + id + "\""+ " AND " + GATEWAYS_INFO_COLUMN_USER_UUID + " =  \"" + userId + "\"";
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(query, null);
-        GatewayInfo r = new GatewayInfo();
+    public void addWidgetDevice(DeviceInfo mDeviceInfo) {
+        getCache().putDevice(mDeviceInfo);
+        scheduleDeviceWrite(mDeviceInfo.getWidgetId());
+    }
 
-        if (cursor.moveToFirst()) {
-            cursor.moveToFirst();
+    public void addWidgetSensor(SensorInfo mSensorInfo) {
+        getCache().putSensor(mSensorInfo);
+        scheduleSensorWrite(mSensorInfo.getWidgetId());
+    }
 
-            r.setId(cursor.getInt(0));
-            r.setUserUuid(cursor.getString(1));
-            r.setTimezone(cursor.getString(2));
+    public void addGatewaysInfo(GatewayInfo gatewayInfo) {
+        addGatewaysInfo(Collections.singletonList(gatewayInfo));
+    }
 
-            cursor.close();
-        } else {
-            r = null;
+    /**
+     * Stores many gateways at once, they are written to SQLite in a single transaction.
+     */
+    public void addGatewaysInfo(List<GatewayInfo> gateways) {
+        WidgetInfoCache widgetInfoCache = getCache();
+        for (GatewayInfo gatewayInfo : gateways) {
+            widgetInfoCache.putGateway(gatewayInfo);
         }
-        db.close();
-        return r;
+        scheduleWrite(null, null, gateways);
+    }
+
+    public DeviceInfo findWidgetInfoDevice(int id) {
+        return getCache().getDevice(id);
+    }
+
+    public SensorInfo findWidgetInfoSensor(int id) {
+        return getCache().getSensor(id);
+    }
+
+    public GatewayInfo findCurrentAccountGatewaysInfo(int id, String userId) {
+        return getCache().getGateway(id, userId);
     }
 
     public ArrayList<SensorInfo> findWidgetInfoSensorWithSensorId(int id) {
-        String selectQuery = "Select * FROM " + TABLE_WIDGET_INFO_SENSOR + " WHERE " + SENSOR_ID + " =  \"" + id + "\"";
-        SQLiteDatabase db = this.getWritableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
-        ArrayList<SensorInfo> mSensorInfo = new ArrayList<SensorInfo>();
-
-        if (cursor.moveToFirst()) {
-            do {
-                SensorInfo r = new SensorInfo();
-                r.setWidgetId(cursor.getInt(0));
-                r.setSensorId(cursor.getInt(1));
-                r.setSensorName(cursor.getString(2));
-                r.setSensorDisplayType(cursor.getString(3));
-                r.setUpdateInterval(cursor.getInt(10));
-                int index12 = cursor.getColumnIndex(CLIENT_ID);
-                r.setClientId(index12 != -1 ? cursor.getInt(index12) : -1);
-                int index13 = cursor.getColumnIndex(COLUMN_USER_UUID);
-                r.setUserUuid(index13 != -1 ? cursor.getString(index13) : "");
-                mSensorInfo.add(r);
-            } while (cursor.moveToNext());
-        }
-        cursor.close();
-
-        db.close();
-        return mSensorInfo;
-    }
-
-    public boolean updateDeviceState(String action, int widgetId, String value, String secStateValue) {
-        String val = String.valueOf(widgetId);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DEVICE_STATE, action);
-        contentValues.put(DEVICE_STATE_VALUE, value);
-        contentValues.put(DEVICE_SECONDARY_STATE_VALUE, secStateValue);
-
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_DEVICE, contentValues, WIDGET_ID_DEVICE+" = ?", whereArgs);
-        db.close();
-        return true;
+        return getCache().getSensorsWithSensorId(id);
     }
 
-    public boolean updateDeviceMethodRequested(int widgetId, String methodRequested, String requestedStateValue, String requestedSecStateValue) {
-        String val = String.valueOf(widgetId);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DEVICE_METHOD_REQUESTED, methodRequested);
-        contentValues.put(REQUESTED_DEVICE_STATE_VALUE, requestedStateValue);
-        contentValues.put(REQUESTED_DEVICE_SECONDARY_STATE_VALUE, requestedSecStateValue);
+    /**
+     * Writes the states of many devices in a single transaction. "devices" are expected to carry
+     * deviceId, state, deviceStateValue and secondaryStateValue(null secondaryStateValue is left untouched).
+     * Widgets with an action in progress are skipped, and only rows that actually change are written.
+     * Thermostat widgets are skipped too, their state and deviceStateValue hold mode and temperature.
+     *
+     * Returns the number of widgets updated.
+     */
+    public int updateDeviceStates(List<DeviceInfo> devices, final String userId) {
+        WidgetInfoCache widgetInfoCache = getCache();
+        ArrayList<Integer> changed = new ArrayList<Integer>();
+        for (final DeviceInfo device : devices) {
+            for (DeviceInfo widgetInfo : widgetInfoCache.getDevicesWithDeviceId(device.getDeviceId())) {
+                final String secStateValue = device.getSecondaryStateValue() != null ? device.getSecondaryStateValue() : widgetInfo.getSecondaryStateValue();
+                boolean isSameAccount = userId.equals(widgetInfo.getUserId());
+                boolean hasChanged = !equalsOrBothNull(device.getState(), widgetInfo.getState())
+                        || !equalsOrBothNull(device.getDeviceStateValue(), widgetInfo.getDeviceStateValue())
+                        || !equalsOrBothNull(secStateValue, widgetInfo.getSecondaryStateValue());
+                boolean isThermostat = SupportedMethods.has(widgetInfo.getDeviceMethods(), SupportedMethods.THERMOSTAT);
+                if (!isSameAccount || isThermostat || widgetInfo.getMethodRequested() != null || !hasChanged) {
+                    continue;
+                }
+                widgetInfoCache.updateDevice(widgetInfo.getWidgetId(), new WidgetInfoCache.DeviceUpdate() {
+                    @Override
+                    public void apply(DeviceInfo info) {
+                        info.setState(device.getState());
+                        info.setDeviceStateValue(device.getDeviceStateValue());
+                        info.setSecondaryStateValue(secStateValue);
+                    }
+                });
+                changed.add(widgetInfo.getWidgetId());
+            }
+        }
+        if (!changed.isEmpty()) {
+            scheduleWrite(changed, null, null);
+        }
+        return changed.size();
+    }
 
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_DEVICE, contentValues, WIDGET_ID_DEVICE+" = ?", whereArgs);
-        db.close();
+    private static boolean equalsOrBothNull(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public boolean updateDeviceState(final String action, final int widgetId, final String value, final String secStateValue) {
+        getCache().updateDevice(widgetId, new WidgetInfoCache.DeviceUpdate() {
+            @Override
+            public void apply(DeviceInfo info) {
+                info.setState(action);
+                info.setDeviceStateValue(value);
+                info.setSecondaryStateValue(secStateValue);
+            }
+        });
+        scheduleDeviceWrite(widgetId);
         return true;
     }
 
-    public boolean updateIsShowingStatus(Integer isShowingStatus, int widgetId) {
-        String val = String.valueOf(widgetId);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DEVICE_IS_SHOWING_STATUS, isShowingStatus);
+    public boolean updateDeviceMethodRequested(final int widgetId, final String methodRequested, final String requestedStateValue, final String requestedSecStateValue) {
+        getCache().updateDevice(widgetId, new WidgetInfoCache.DeviceUpdate() {
+            @Override
+            public void apply(DeviceInfo info) {
+                info.setMethodRequested(methodRequested);
+                info.setRequestedStateValue(requestedStateValue);
+                info.setRequestedSecStateValue(requestedSecStateValue);
+            }
+        });
+        scheduleDeviceWrite(widgetId);
+        return true;
+    }
 
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_DEVICE, contentValues, WIDGET_ID_DEVICE+" = ?", whereArgs);
-        db.close();
+    public boolean updateIsShowingStatus(final Integer isShowingStatus, int widgetId) {
+        getCache().updateDevice(widgetId, new WidgetInfoCache.DeviceUpdate() {
+            @Override
+            public void apply(DeviceInfo info) {
+                info.setIsShowingStatus(isShowingStatus);
+            }
+        });
+        scheduleDeviceWrite(widgetId);
         return true;
     }
 
-    public boolean updateDeviceInfo(String methodRequested, String deviceState,
-                                    String stateValue, Integer isShowingStatus,
-                                    String secStateValue, int widgetId,
-                                    String requestedStateValue, String requestedSecStateValue) {
-        String val = String.valueOf(widgetId);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DEVICE_STATE, deviceState);
-        contentValues.put(DEVICE_STATE_VALUE, stateValue);
-        contentValues.put(DEVICE_METHOD_REQUESTED, methodRequested);
-        contentValues.put(DEVICE_IS_SHOWING_STATUS, isShowingStatus);
-        contentValues.put(DEVICE_SECONDARY_STATE_VALUE, secStateValue);
-        contentValues.put(REQUESTED_DEVICE_STATE_VALUE, requestedStateValue);
-        contentValues.put(REQUESTED_DEVICE_SECONDARY_STATE_VALUE, requestedSecStateValue);
-
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_DEVICE, contentValues, WIDGET_ID_DEVICE+" = ?", whereArgs);
-        db.close();
+    public boolean updateDeviceInfo(final String methodRequested, final String deviceState,
+                                    final String stateValue, final Integer isShowingStatus,
+                                    final String secStateValue, final int widgetId,
+                                    final String requestedStateValue, final String requestedSecStateValue) {
+        getCache().updateDevice(widgetId, new WidgetInfoCache.DeviceUpdate() {
+            @Override
+            public void apply(DeviceInfo info) {
+                info.setState(deviceState);
+                info.setDeviceStateValue(stateValue);
+                info.setMethodRequested(methodRequested);
+                info.setIsShowingStatus(isShowingStatus);
+                info.setSecondaryStateValue(secStateValue);
+                info.setRequestedStateValue(requestedStateValue);
+                info.setRequestedSecStateValue(requestedSecStateValue);
+            }
+        });
+        scheduleDeviceWrite(widgetId);
         return true;
     }
 
-    public boolean updateDeviceName(String deviceName, int deviceId) {
-        String val = String.valueOf(deviceId);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DEVICE_NAME, deviceName);
+    /**
+     * Same as updateDeviceInfo, for many widgets at once. "widgetInfos" carry the widgetId and the new values,
+     * all of them are written to SQLite in a single transaction.
+     */
+    public void updateDeviceInfo(List<DeviceInfo> widgetInfos) {
+        WidgetInfoCache widgetInfoCache = getCache();
+        ArrayList<Integer> widgetIds = new ArrayList<Integer>();
+        for (final DeviceInfo widgetInfo : widgetInfos) {
+            widgetInfoCache.updateDevice(widgetInfo.getWidgetId(), new WidgetInfoCache.DeviceUpdate() {
+                @Override
+                public void apply(DeviceInfo info) {
+                    info.setState(widgetInfo.getState());
+                    info.setDeviceStateValue(widgetInfo.getDeviceStateValue());
+                    info.setMethodRequested(widgetInfo.getMethodRequested());
+                    info.setIsShowingStatus(widgetInfo.getIsShowingStatus());
+                    info.setSecondaryStateValue(widgetInfo.getSecondaryStateValue());
+                    info.setRequestedStateValue(widgetInfo.getRequestedStateValue());
+                    info.setRequestedSecStateValue(widgetInfo.getRequestedSecStateValue());
+                }
+            });
+            widgetIds.add(widgetInfo.getWidgetId());
+        }
+        scheduleWrite(widgetIds, null, null);
+    }
 
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_DEVICE, contentValues, DEVICE_ID+" = ?", whereArgs);
-        db.close();
+    public boolean updateDeviceName(final String deviceName, int deviceId) {
+        ArrayList<Integer> widgetIds = getCache().updateDevicesWithDeviceId(deviceId, new WidgetInfoCache.DeviceUpdate() {
+            @Override
+            public void apply(DeviceInfo info) {
+                info.setDeviceName(deviceName);
+            }
+        });
+        scheduleWrite(widgetIds, null, null);
         return true;
     }
 
-    public int updateSensorInfo(String name, String value, long time, int Wid) {
-        String time1 = String.valueOf(time);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        String id = String.valueOf(Wid);
+    public int updateSensorInfo(final String name, final String value, final long time, final int Wid) {
+        boolean exists = getCache().updateSensor(Wid, new WidgetInfoCache.SensorUpdate() {
+            @Override
+            public void apply(SensorInfo info) {
+                info.setSensorName(name);
+                info.setSensorValue(value);
+                info.setSensorUpdate(String.valueOf(time));
+            }
+        });
+        scheduleSensorWrite(Wid);
+        return exists ? 1 : 0;
+    }
 
-        contentValues.put(SENSOR_NAME, name);
-        contentValues.put(SENSOR_VALUE, value);
-        contentValues.put(SENSOR_UPDATE, time1);
-        String[] whereArgs = {id};
-        int count = db.update(TABLE_WIDGET_INFO_SENSOR, contentValues, WIDGET_ID_SENSOR+" = ?", whereArgs );
-        db.close();
-        return count;
+    /**
+     * Records a value of a sensor(Ex: name "temp", scale "0") in the sensor history.
+     * "time" is in seconds, values that are not numbers are ignored.
+     */
+    public void addSensorHistorySample(int sensorId, String name, String scale, long time, String value) {
+        if (value == null) {
+            return;
+        }
+        long scaledValue;
+        try {
+            scaledValue = Math.round(Double.parseDouble(value) * SensorHistoryStore.VALUE_SCALE);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        scheduleSensorHistoryWrite(new SensorHistorySample(sensorId, name, scale, time, scaledValue));
     }
 
-    public boolean updateSensorName(String sensorName, int sensorId) {
-        String val = String.valueOf(sensorId);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(SENSOR_NAME, sensorName);
+    /**
+     * Recorded values of a sensor since "since"(seconds), oldest first. Samples older than a week
+     * are hourly averages.
+     */
+    public ArrayList<SensorHistoryPoint> getSensorHistory(int sensorId, String name, String scale, long since) {
+        return SensorHistoryStore.query(getDatabase(), sensorId, name, scale, since);
+    }
 
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_SENSOR, contentValues, SENSOR_ID+" = ?", whereArgs);
-        db.close();
+    public boolean updateSensorName(final String sensorName, int sensorId) {
+        ArrayList<Integer> widgetIds = getCache().updateSensorsWithSensorId(sensorId, new WidgetInfoCache.SensorUpdate() {
+            @Override
+            public void apply(SensorInfo info) {
+                info.setSensorName(sensorName);
+            }
+        });
+        scheduleWrite(null, widgetIds, null);
         return true;
     }
 
-    public boolean deleteWidgetInfoDevice(int id) {
-        String widget = String.valueOf(id);
-        SQLiteDatabase db = this.getWritableDatabase();
-        String[] whereArgs = {widget};
-
-        int flag = db.delete(TABLE_WIDGET_INFO_DEVICE, WIDGET_ID_DEVICE+" = ?", whereArgs);
-        db.close();
-        return flag > 0;
+    public boolean deleteWidgetInfoDevice(final int id) {
+        boolean flag = getCache().removeDevice(id);
+        scheduleDeviceWrite(id);
+        return flag;
     }
 
-    public boolean deleteWidgetInfoSensor(int id) {
-        String widget = String.valueOf(id);
-        SQLiteDatabase db = this.getWritableDatabase();
-        String[] whereArgs = {widget};
-
-        int flag = db.delete(TABLE_WIDGET_INFO_SENSOR, WIDGET_ID_SENSOR+" = ?", whereArgs);
-        db.close();
-        return flag > 0;
+    public boolean deleteWidgetInfoSensor(final int id) {
+        boolean flag = getCache().removeSensor(id);
+        scheduleSensorWrite(id);
+        return flag;
     }
 
     public int countWidgetSensorTableValues() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        String count = "SELECT count(*) FROM " + TABLE_WIDGET_INFO_SENSOR;
-        Cursor mcursor = db.rawQuery(count, null);
-        mcursor.moveToFirst();
-        int icount = mcursor.getInt(0);
-
-        db.close();
-        return icount;
+        return getCache().countSensors();
     }
 
     public int countWidgetDeviceTableValues() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        String count = "SELECT count(*) FROM " + TABLE_WIDGET_INFO_DEVICE;
-        Cursor mcursor = db.rawQuery(count, null);
-        mcursor.moveToFirst();
-        int icount = mcursor.getInt(0);
-
-        db.close();
-        return icount;
-    }
-
-    @Override
-    protected void finalize() throws Throwable {
-        this.close();
-        super.finalize();
+        return getCache().countDevices();
     }
 
     public ArrayList<DeviceInfo> getAllWidgetsWithDeviceId(Integer deviceId) {
-        ArrayList<DeviceInfo> list = new ArrayList<DeviceInfo>();
-
-        // Select All Query
-        String selectQuery = "SELECT  * FROM " + TABLE_WIDGET_INFO_DEVICE + " WHERE " + DEVICE_ID + " = " + deviceId;
-
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
-
-        // looping through all rows and adding to list
-        if (cursor.moveToFirst()) {
-            do {
-
-                DeviceInfo r = new DeviceInfo();
-                r.setWidgetId(cursor.getInt(0));
-                r.setDeviceId(cursor.getInt(1));
-                r.setDeviceName(cursor.getString(2));
-                r.setState(cursor.getString(3));
-                r.setDeviceMethods(cursor.getInt(4));
-                r.setDeviceType(cursor.getString(5));
-                r.setDeviceStateValue(cursor.getString(6));
-                r.setUserId(cursor.getString(8));
-                r.setMethodRequested(cursor.getString(9));
-                r.setIsShowingStatus(cursor.getInt(10));
-                r.setUpdateInterval(cursor.getInt(11));
-                r.setClientDeviceid(cursor.getInt(12));
-                r.setClientId(cursor.getInt(13));
-                r.setSecondaryStateValue(cursor.getString(14));
-                r.setPrimarySetting(cursor.getString(15));
-                r.setSecondarySetting(cursor.getString(16));
-                int index17 = cursor.getColumnIndex(REQUESTED_DEVICE_STATE_VALUE);
-                r.setRequestedStateValue(index17 != -1 ? cursor.getString(index17) : "");
-                int index18 = cursor.getColumnIndex(REQUESTED_DEVICE_SECONDARY_STATE_VALUE);
-                r.setRequestedSecStateValue(index18 != -1 ? cursor.getString(index18) : "");
-                int index19 = cursor.getColumnIndex(COLUMN_USER_UUID);
-                r.setUserUuid(index19 != -1 ? cursor.getString(index19) : "");
-
-                list.add(r);
-            } while (cursor.moveToNext());
-        }
-        // closing connection
-        cursor.close();
-        db.close();
-
-        return list;
+        return getCache().getDevicesWithDeviceId(deviceId);
     }
 
     public ArrayList<SensorInfo> getAllWidgetsWithSensorId(Integer sensorId) {
-        ArrayList<SensorInfo> list = new ArrayList<SensorInfo>();
-
-        // Select All Query
-        String selectQuery = "SELECT  * FROM " + TABLE_WIDGET_INFO_SENSOR + " WHERE " + SENSOR_ID + " = " + sensorId;
-
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);
-
-        // looping through all rows and adding to list
-        if (cursor.moveToFirst()) {
-            do {
-
-                SensorInfo r = new SensorInfo();
-                r.setWidgetId(cursor.getInt(0));
-                r.setSensorId(cursor.getInt(1));
-                r.setSensorName(cursor.getString(2));
-                r.setSensorDisplayType(cursor.getString(3));
-                r.setSensorUpdate(cursor.getString(4));
-                r.setSensorValue(cursor.getString(5));
-                r.setSensorUnit(cursor.getString(6));
-                r.setSensorIcon(cursor.getString(7));
-                r.setTransparent(cursor.getString(8));
-                r.setUserId(cursor.getString(9));
-                r.setUpdateInterval(cursor.getInt(10));
-                int index12 = cursor.getColumnIndex(CLIENT_ID);
-                r.setClientId(index12 != -1 ? cursor.getInt(index12) : -1);
-                int index13 = cursor.getColumnIndex(COLUMN_USER_UUID);
-                r.setUserUuid(index13 != -1 ? cursor.getString(index13) : "");
-
-                list.add(r);
-            } while (cursor.moveToNext());
-        }
-        // closing connection
-        cursor.close();
-        db.close();
-
-        return list;
-    }
-
-    public boolean updateDeviceIdDeviceWidget(Integer deviceId, int id) {
-        String val = String.valueOf(id);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DEVICE_ID, deviceId);
-
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_DEVICE, contentValues, WIDGET_ID_DEVICE+" = ?", whereArgs );
-        db.close();
-        return true;
+        return getCache().getSensorsWithSensorId(sensorId);
     }
 
-    public boolean updateSensorIdSensorWidget(Integer sensorId, int id) {
-        String val = String.valueOf(id);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(SENSOR_ID, sensorId);
+    public boolean updateDeviceIdDeviceWidget(final Integer deviceId, int id) {
+        return setDeviceIdDeviceWidget(id, deviceId);
+    }
 
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_SENSOR, contentValues, WIDGET_ID_SENSOR+" = ?", whereArgs );
-        db.close();
-        return true;
+    public boolean updateSensorIdSensorWidget(final Integer sensorId, int id) {
+        return setSensorIdSensorWidget(id, sensorId);
     }
 
+    /**
+     * Device ids of all the device widgets.
+     */
     public ArrayList<Integer> getAllWidgetDevices() {
-        ArrayList<Integer> list = new ArrayList<Integer>();
-
-        // Select All Query
-        String selectQuery = "SELECT  * FROM " + TABLE_WIDGET_INFO_DEVICE;
-
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);//selectQuery,selectedArguments
-
-        // looping through all rows and adding to list
-        if (cursor.moveToFirst()) {
-            do {
-                list.add(cursor.getInt(1));//adding 2nd column data
-            } while (cursor.moveToNext());
-        }
-        // closing connection
-        cursor.close();
-        db.close();
-
-        // returning lables
-        return list;
+        return getCache().getAllDeviceIds();
     }
 
+    /**
+     * Sensor ids of all the sensor widgets.
+     */
     public ArrayList<Integer> getAllWidgetSensors() {
-        ArrayList<Integer> list = new ArrayList<Integer>();
-
-        // Select All Query
-        String selectQuery = "SELECT  * FROM " + TABLE_WIDGET_INFO_SENSOR;
-
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery(selectQuery, null);//selectQuery,selectedArguments
-
-        // looping through all rows and adding to list
-        if (cursor.moveToFirst()) {
-            do {
-                list.add(cursor.getInt(1));//adding 2nd column data
-            } while (cursor.moveToNext());
-        }
-        // closing connection
-        cursor.close();
-        db.close();
-
-        // returning lables
-        return list;
+        return getCache().getAllSensorIds();
     }
 
-    public boolean setDeviceIdDeviceWidget(Integer widgetId, Integer deviceId) {
-        String val = String.valueOf(widgetId);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(DEVICE_ID, deviceId);
-
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_DEVICE, contentValues, WIDGET_ID_DEVICE+" = ?", whereArgs );
-        db.close();
+    public boolean setDeviceIdDeviceWidget(Integer widgetId, final Integer deviceId) {
+        getCache().updateDevice(widgetId, new WidgetInfoCache.DeviceUpdate() {
+            @Override
+            public void apply(DeviceInfo info) {
+                info.setDeviceId(deviceId);
+            }
+        });
+        scheduleDeviceWrite(widgetId);
         return true;
     }
 
-    public boolean setSensorIdSensorWidget(Integer widgetId, Integer sensorId) {
-        String val = String.valueOf(widgetId);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(SENSOR_ID, sensorId);
-
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_SENSOR, contentValues, WIDGET_ID_SENSOR+" = ?", whereArgs );
-        db.close();
+    public boolean setSensorIdSensorWidget(Integer widgetId, final Integer sensorId) {
+        getCache().updateSensor(widgetId, new WidgetInfoCache.SensorUpdate() {
+            @Override
+            public void apply(SensorInfo info) {
+                info.setSensorId(sensorId);
+            }
+        });
+        scheduleSensorWrite(widgetId);
         return true;
     }
 
-    public boolean updateSensorIsUpdating(Integer widgetId, String isUpdating) {
-        String val = String.valueOf(widgetId);
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(SENSOR_IS_UPDATING, isUpdating);
-
-        String[] whereArgs = {val};
-        int count = db.update(TABLE_WIDGET_INFO_SENSOR, contentValues, WIDGET_ID_SENSOR+" = ?", whereArgs );
-        db.close();
+    public boolean updateSensorIsUpdating(Integer widgetId, final String isUpdating) {
+        getCache().updateSensor(widgetId, new WidgetInfoCache.SensorUpdate() {
+            @Override
+            public void apply(SensorInfo info) {
+                info.setIsUpdating(isUpdating);
+            }
+        });
+        scheduleSensorWrite(widgetId);
         return true;
     }
 }
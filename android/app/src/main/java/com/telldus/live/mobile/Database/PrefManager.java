@@ -45,9 +45,39 @@ public class PrefManager {
         editor.putString("clientId", clientId);
         editor.putString("clientSecret", clientSecret);
         editor.putString("refreshToken", refreshToken);
+        editor.putLong("accessTokenStoredAt", System.currentTimeMillis());
         editor.apply();
     }
 
+    /**
+     * Returns the time(in millis) at which the stored access token expires, or -1 if it is not known.
+     * "expire" could either be the lifetime in seconds or an absolute unix timestamp.
+     */
+    public long getAccessTokenExpiresAt() {
+        String expire = pref.getString("expire", "");
+        long storedAt = pref.getLong("accessTokenStoredAt", -1);
+        if (expire == null || expire.trim().isEmpty()) {
+            return -1;
+        }
+        long expireValue;
+        try {
+            expireValue = (long) Double.parseDouble(expire.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if (expireValue <= 0) {
+            return -1;
+        }
+        // Values that large can only be a timestamp, not a lifetime.
+        if (expireValue > 1000000000L) {
+            return expireValue * 1000;
+        }
+        if (storedAt == -1) {
+            return -1;
+        }
+        return storedAt + (expireValue * 1000);
+    }
+
     public String getAccessToken() {
         return pref.getString("accessToken", "");
     }
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.Database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+import com.telldus.live.mobile.Model.SensorHistoryPoint;
+
+/**
+ * Append only history of sensor values, used by MyDBHandler.
+ *
+ * Samples are kept in chunks of one day per sensor value(sensorId, name and scale, Ex: temp/0).
+ * A chunk is a single row with the samples packed into a blob, as varint encoded deltas from the
+ * previous sample: seconds since the previous timestamp, and the change of the value stored as an
+ * integer(VALUE_SCALE x the value). The last timestamp and value are kept in columns, so appending a
+ * sample does not need to decode the chunk.
+ *
+ * Chunks older than RAW_RETENTION are downsampled to hourly averages, and dropped after RETENTION.
+ */
+class SensorHistoryStore {
+    static final String TABLE_SENSOR_HISTORY = "SensorHistory";
+    static final String SENSOR_ID = "sensorId";
+    static final String VALUE_NAME = "name";
+    static final String VALUE_SCALE_TYPE = "scale";
+    static final String RESOLUTION = "resolution";
+    static final String START_TIME = "startTime";
+    static final String LAST_TIME = "lastTime";
+    static final String LAST_VALUE = "lastValue";
+    static final String SAMPLE_COUNT = "sampleCount";
+    static final String SAMPLES = "samples";
+
+    static final int VALUE_SCALE = 100;
+
+    // All times are in seconds, like the timestamps in the API.
+    private static final long CHUNK_DURATION = 24 * 60 * 60;
+    private static final int RESOLUTION_RAW = 0;
+    private static final int RESOLUTION_HOURLY = 60 * 60;
+    private static final long RAW_RETENTION = 7 * 24 * 60 * 60;
+    private static final long RETENTION = 365 * 24 * 60 * 60L;
+    private static final long DOWNSAMPLE_INTERVAL = 6 * 60 * 60;
+
+    private static long lastDownsampledAt = 0;
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_SENSOR_HISTORY + "(" + SENSOR_ID + " INTEGER," + VALUE_NAME
+                + " TEXT," + VALUE_SCALE_TYPE + " TEXT," + RESOLUTION + " INTEGER," + START_TIME + " INTEGER,"
+                + LAST_TIME + " INTEGER," + LAST_VALUE + " INTEGER," + SAMPLE_COUNT + " INTEGER," + SAMPLES + " BLOB)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_sensor_history ON " + TABLE_SENSOR_HISTORY + "("
+                + SENSOR_ID + ", " + VALUE_NAME + ", " + VALUE_SCALE_TYPE + ", " + START_TIME + ")");
+    }
+
+    /**
+     * Appends a sample, unless it is not newer than the last one stored(Ex: the same reading fetched again).
+     */
+    static void append(SQLiteDatabase db, int sensorId, String name, String scale, long time, long value) {
+        String[] whereArgs = {String.valueOf(sensorId), name, scale, String.valueOf(RESOLUTION_RAW)};
+        Cursor cursor = db.query(TABLE_SENSOR_HISTORY,
+                new String[]{"rowid", START_TIME, LAST_TIME, LAST_VALUE, SAMPLE_COUNT, SAMPLES},
+                SENSOR_ID + " = ? AND " + VALUE_NAME + " = ? AND " + VALUE_SCALE_TYPE + " = ? AND " + RESOLUTION + " = ?",
+                whereArgs, null, null, START_TIME + " DESC", "1");
+        try {
+            if (cursor.moveToFirst()) {
+                long rowId = cursor.getLong(0);
+                long startTime = cursor.getLong(1);
+                long lastTime = cursor.getLong(2);
+                long lastValue = cursor.getLong(3);
+                if (time <= lastTime) {
+                    return;
+                }
+                if (time - startTime < CHUNK_DURATION) {
+                    ByteArrayOutputStream samples = new ByteArrayOutputStream();
+                    byte[] current = cursor.getBlob(5);
+                    samples.write(current, 0, current.length);
+                    writeSample(samples, time - lastTime, value - lastValue);
+
+                    ContentValues values = new ContentValues();
+                    values.put(LAST_TIME, time);
+                    values.put(LAST_VALUE, value);
+                    values.put(SAMPLE_COUNT, cursor.getInt(4) + 1);
+                    values.put(SAMPLES, samples.toByteArray());
+                    db.update(TABLE_SENSOR_HISTORY, values, "rowid = ?", new String[]{String.valueOf(rowId)});
+                    return;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ArrayList<long[]> samples = new ArrayList<long[]>();
+        samples.add(new long[]{time, value});
+        insertChunk(db, sensorId, name, scale, RESOLUTION_RAW, samples);
+    }
+
+    /**
+     * Samples since "since"(seconds), oldest first.
+     */
+    static ArrayList<SensorHistoryPoint> query(SQLiteDatabase db, int sensorId, String name, String scale, long since) {
+        ArrayList<SensorHistoryPoint> points = new ArrayList<SensorHistoryPoint>();
+        String[] whereArgs = {String.valueOf(sensorId), name, scale, String.valueOf(since)};
+        Cursor cursor = db.query(TABLE_SENSOR_HISTORY, new String[]{START_TIME, SAMPLES},
+                SENSOR_ID + " = ? AND " + VALUE_NAME + " = ? AND " + VALUE_SCALE_TYPE + " = ? AND " + LAST_TIME + " >= ?",
+                whereArgs, null, null, START_TIME + " ASC");
+        while (cursor.moveToNext()) {
+            for (long[] sample : decode(cursor.getLong(0), cursor.getBlob(1))) {
+                if (sample[0] >= since) {
+                    points.add(new SensorHistoryPoint(sample[0], (double) sample[1] / VALUE_SCALE));
+                }
+            }
+        }
+        cursor.close();
+        return points;
+    }
+
+    /**
+     * Drops expired chunks and turns old raw chunks into hourly averages, at most once every DOWNSAMPLE_INTERVAL.
+     */
+    static void downsampleIfDue(SQLiteDatabase db, long now) {
+        if (now - lastDownsampledAt < DOWNSAMPLE_INTERVAL) {
+            return;
+        }
+        lastDownsampledAt = now;
+
+        db.delete(TABLE_SENSOR_HISTORY, LAST_TIME + " < ?", new String[]{String.valueOf(now - RETENTION)});
+
+        // Read the chunks first, they are replaced below.
+        ArrayList<Object[]> rawChunks = new ArrayList<Object[]>();
+        String[] whereArgs = {String.valueOf(RESOLUTION_RAW), String.valueOf(now - RAW_RETENTION)};
+        Cursor cursor = db.query(TABLE_SENSOR_HISTORY,
+                new String[]{"rowid", SENSOR_ID, VALUE_NAME, VALUE_SCALE_TYPE, START_TIME, SAMPLES},
+                RESOLUTION + " = ? AND " + LAST_TIME + " < ?", whereArgs, null, null, null);
+        while (cursor.moveToNext()) {
+            rawChunks.add(new Object[]{cursor.getLong(0), cursor.getInt(1), cursor.getString(2),
+                    cursor.getString(3), cursor.getLong(4), cursor.getBlob(5)});
+        }
+        cursor.close();
+
+        for (Object[] chunk : rawChunks) {
+            ArrayList<long[]> hourly = new ArrayList<long[]>();
+            long bucket = -1, sum = 0, count = 0;
+            for (long[] sample : decode((Long) chunk[4], (byte[]) chunk[5])) {
+                long sampleBucket = sample[0] - (sample[0] % RESOLUTION_HOURLY);
+                if (sampleBucket != bucket && count > 0) {
+                    hourly.add(new long[]{bucket, Math.round((double) sum / count)});
+                    sum = 0;
+                    count = 0;
+                }
+                bucket = sampleBucket;
+                sum += sample[1];
+                count++;
+            }
+            if (count > 0) {
+                hourly.add(new long[]{bucket, Math.round((double) sum / count)});
+            }
+
+            db.delete(TABLE_SENSOR_HISTORY, "rowid = ?", new String[]{String.valueOf(chunk[0])});
+            if (!hourly.isEmpty()) {
+                insertChunk(db, (Integer) chunk[1], (String) chunk[2], (String) chunk[3], RESOLUTION_HOURLY, hourly);
+            }
+        }
+    }
+
+    private static void insertChunk(SQLiteDatabase db, int sensorId, String name, String scale, int resolution, ArrayList<long[]> samples) {
+        long[] first = samples.get(0);
+        long[] last = samples.get(samples.size() - 1);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        long previousTime = first[0], previousValue = 0;
+        for (long[] sample : samples) {
+            writeSample(encoded, sample[0] - previousTime, sample[1] - previousValue);
+            previousTime = sample[0];
+            previousValue = sample[1];
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(SENSOR_ID, sensorId);
+        values.put(VALUE_NAME, name);
+        values.put(VALUE_SCALE_TYPE, scale);
+        values.put(RESOLUTION, resolution);
+        values.put(START_TIME, first[0]);
+        values.put(LAST_TIME, last[0]);
+        values.put(LAST_VALUE, last[1]);
+        values.put(SAMPLE_COUNT, samples.size());
+        values.put(SAMPLES, encoded.toByteArray());
+        db.insert(TABLE_SENSOR_HISTORY, null, values);
+    }
+
+    // Each sample is {time, value}, the first one is relative to the start time of the chunk and a value of 0.
+    private static ArrayList<long[]> decode(long startTime, byte[] samples) {
+        ArrayList<long[]> decoded = new ArrayList<long[]>();
+        long time = startTime, value = 0;
+        int[] position = {0};
+        while (position[0] < samples.length) {
+            time += readVarLong(samples, position);
+            value += unZigZag(readVarLong(samples, position));
+            decoded.add(new long[]{time, value});
+        }
+        return decoded;
+    }
+
+    private static void writeSample(ByteArrayOutputStream out, long timeDelta, long valueDelta) {
+        writeVarLong(out, timeDelta);
+        writeVarLong(out, (valueDelta << 1) ^ (valueDelta >> 63));
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(byte[] bytes, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.Database;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.telldus.live.mobile.Model.DeviceInfo;
+import com.telldus.live.mobile.Model.GatewayInfo;
+import com.telldus.live.mobile.Model.SensorInfo;
+
+/**
+ * In memory copy of the widget tables, kept by MyDBHandler in front of SQLite.
+ *
+ * Rows are keyed by widget id, with secondary indexes by device id and sensor id. Objects never leave
+ * the cache, callers always get copies, so that they cannot change the cached rows behind its back.
+ */
+class WidgetInfoCache {
+
+    interface DeviceUpdate {
+        void apply(DeviceInfo info);
+    }
+
+    interface SensorUpdate {
+        void apply(SensorInfo info);
+    }
+
+    // Insertion ordered, like the rows in SQLite.
+    private final Map<Integer, DeviceInfo> devicesByWidgetId = new LinkedHashMap<Integer, DeviceInfo>();
+    private final Map<Integer, Set<Integer>> deviceWidgetIdsByDeviceId = new HashMap<Integer, Set<Integer>>();
+    private final Map<Integer, SensorInfo> sensorsByWidgetId = new LinkedHashMap<Integer, SensorInfo>();
+    private final Map<Integer, Set<Integer>> sensorWidgetIdsBySensorId = new HashMap<Integer, Set<Integer>>();
+    private final Map<String, GatewayInfo> gateways = new HashMap<String, GatewayInfo>();
+
+    synchronized DeviceInfo getDevice(int widgetId) {
+        DeviceInfo info = devicesByWidgetId.get(widgetId);
+        return info == null ? null : copy(info);
+    }
+
+    synchronized ArrayList<DeviceInfo> getDevicesWithDeviceId(int deviceId) {
+        ArrayList<DeviceInfo> list = new ArrayList<DeviceInfo>();
+        Set<Integer> widgetIds = deviceWidgetIdsByDeviceId.get(deviceId);
+        if (widgetIds != null) {
+            for (Integer widgetId : widgetIds) {
+                list.add(copy(devicesByWidgetId.get(widgetId)));
+            }
+        }
+        return list;
+    }
+
+    synchronized ArrayList<Integer> getAllDeviceIds() {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (DeviceInfo info : devicesByWidgetId.values()) {
+            list.add(info.getDeviceId());
+        }
+        return list;
+    }
+
+    synchronized int countDevices() {
+        return devicesByWidgetId.size();
+    }
+
+    synchronized void putDevice(DeviceInfo info) {
+        removeDevice(info.getWidgetId());
+        DeviceInfo cached = copy(info);
+        normalize(cached);
+        devicesByWidgetId.put(cached.getWidgetId(), cached);
+        indexDevice(cached);
+    }
+
+    /**
+     * Returns false if there is no such widget.
+     */
+    synchronized boolean updateDevice(int widgetId, DeviceUpdate update) {
+        DeviceInfo info = devicesByWidgetId.get(widgetId);
+        if (info == null) {
+            return false;
+        }
+        unindexDevice(info);
+        update.apply(info);
+        normalize(info);
+        indexDevice(info);
+        return true;
+    }
+
+    /**
+     * Returns the ids of the widgets updated.
+     */
+    synchronized ArrayList<Integer> updateDevicesWithDeviceId(int deviceId, DeviceUpdate update) {
+        ArrayList<Integer> widgetIds = new ArrayList<Integer>();
+        Set<Integer> indexed = deviceWidgetIdsByDeviceId.get(deviceId);
+        if (indexed != null) {
+            widgetIds.addAll(indexed);
+        }
+        for (Integer widgetId : widgetIds) {
+            updateDevice(widgetId, update);
+        }
+        return widgetIds;
+    }
+
+    synchronized boolean removeDevice(int widgetId) {
+        DeviceInfo info = devicesByWidgetId.remove(widgetId);
+        if (info == null) {
+            return false;
+        }
+        unindexDevice(info);
+        return true;
+    }
+
+    synchronized SensorInfo getSensor(int widgetId) {
+        SensorInfo info = sensorsByWidgetId.get(widgetId);
+        return info == null ? null : copy(info);
+    }
+
+    synchronized ArrayList<SensorInfo> getSensorsWithSensorId(int sensorId) {
+        ArrayList<SensorInfo> list = new ArrayList<SensorInfo>();
+        Set<Integer> widgetIds = sensorWidgetIdsBySensorId.get(sensorId);
+        if (widgetIds != null) {
+            for (Integer widgetId : widgetIds) {
+                list.add(copy(sensorsByWidgetId.get(widgetId)));
+            }
+        }
+        return list;
+    }
+
+    synchronized ArrayList<Integer> getAllSensorIds() {
+        ArrayList<Integer> list = new ArrayList<Integer>();
+        for (SensorInfo info : sensorsByWidgetId.values()) {
+            list.add(info.getSensorId());
+        }
+        return list;
+    }
+
+    synchronized int countSensors() {
+        return sensorsByWidgetId.size();
+    }
+
+    synchronized void putSensor(SensorInfo info) {
+        removeSensor(info.getWidgetId());
+        SensorInfo cached = copy(info);
+        normalize(cached);
+        sensorsByWidgetId.put(cached.getWidgetId(), cached);
+        indexSensor(cached);
+    }
+
+    synchronized boolean updateSensor(int widgetId, SensorUpdate update) {
+        SensorInfo info = sensorsByWidgetId.get(widgetId);
+        if (info == null) {
+            return false;
+        }
+        unindexSensor(info);
+        update.apply(info);
+        normalize(info);
+        indexSensor(info);
+        return true;
+    }
+
+    synchronized ArrayList<Integer> updateSensorsWithSensorId(int sensorId, SensorUpdate update) {
+        ArrayList<Integer> widgetIds = new ArrayList<Integer>();
+        Set<Integer> indexed = sensorWidgetIdsBySensorId.get(sensorId);
+        if (indexed != null) {
+            widgetIds.addAll(indexed);
+        }
+        for (Integer widgetId : widgetIds) {
+            updateSensor(widgetId, update);
+        }
+        return widgetIds;
+    }
+
+    synchronized boolean removeSensor(int widgetId) {
+        SensorInfo info = sensorsByWidgetId.remove(widgetId);
+        if (info == null) {
+            return false;
+        }
+        unindexSensor(info);
+        return true;
+    }
+
+    synchronized GatewayInfo getGateway(int id, String userUuid) {
+        GatewayInfo info = gateways.get(id + ":" + userUuid);
+        return info == null ? null : new GatewayInfo(info.getId(), info.getUserUuid(), info.getTimezone());
+    }
+
+    synchronized void putGateway(GatewayInfo info) {
+        gateways.put(info.getId() + ":" + info.getUserUuid(), new GatewayInfo(info.getId(), info.getUserUuid(), info.getTimezone()));
+    }
+
+    private void indexDevice(DeviceInfo info) {
+        Set<Integer> widgetIds = deviceWidgetIdsByDeviceId.get(info.getDeviceId());
+        if (widgetIds == null) {
+            widgetIds = new LinkedHashSet<Integer>();
+            deviceWidgetIdsByDeviceId.put(info.getDeviceId(), widgetIds);
+        }
+        widgetIds.add(info.getWidgetId());
+    }
+
+    private void unindexDevice(DeviceInfo info) {
+        Set<Integer> widgetIds = deviceWidgetIdsByDeviceId.get(info.getDeviceId());
+        if (widgetIds != null) {
+            widgetIds.remove(info.getWidgetId());
+            if (widgetIds.isEmpty()) {
+                deviceWidgetIdsByDeviceId.remove(info.getDeviceId());
+            }
+        }
+    }
+
+    private void indexSensor(SensorInfo info) {
+        Set<Integer> widgetIds = sensorWidgetIdsBySensorId.get(info.getSensorId());
+        if (widgetIds == null) {
+            widgetIds = new LinkedHashSet<Integer>();
+            sensorWidgetIdsBySensorId.put(info.getSensorId(), widgetIds);
+        }
+        widgetIds.add(info.getWidgetId());
+    }
+
+    private void unindexSensor(SensorInfo info) {
+        Set<Integer> widgetIds = sensorWidgetIdsBySensorId.get(info.getSensorId());
+        if (widgetIds != null) {
+            widgetIds.remove(info.getWidgetId());
+            if (widgetIds.isEmpty()) {
+                sensorWidgetIdsBySensorId.remove(info.getSensorId());
+            }
+        }
+    }
+
+    // Integer columns read back from SQLite are never null(Cursor.getInt gives 0), keep the same behaviour.
+    private static void normalize(DeviceInfo info) {
+        if (info.getDeviceMethods() == null) {
+            info.setDeviceMethods(0);
+        }
+        if (info.getIsShowingStatus() == null) {
+            info.setIsShowingStatus(0);
+        }
+        if (info.getUpdateInterval() == null) {
+            info.setUpdateInterval(0);
+        }
+        if (info.getClientDeviceid() == null) {
+            info.setClientDeviceid(0);
+        }
+        if (info.getClientId() == null) {
+            info.setClientId(0);
+        }
+    }
+
+    private static void normalize(SensorInfo info) {
+        if (info.getUpdateInterval() == null) {
+            info.setUpdateInterval(0);
+        }
+    }
+
+    static DeviceInfo copy(DeviceInfo info) {
+        return new DeviceInfo(info.getState(), info.getWidgetId(), info.getDeviceId(), info.getDeviceName(),
+                info.getDeviceMethods(), info.getDeviceType(), info.getDeviceStateValue(), info.getTransparent(),
+                info.getUserId(), info.getMethodRequested(), info.getIsShowingStatus(), info.getUpdateInterval(),
+                info.getClientDeviceid(), info.getClientId(), info.getSecondaryStateValue(), info.getPrimarySetting(),
+                info.getSecondarySetting(), info.getRequestedStateValue(), info.getRequestedSecStateValue(),
+                info.getUserUuid());
+    }
+
+    static SensorInfo copy(SensorInfo info) {
+        SensorInfo r = new SensorInfo();
+        r.setWidgetId(info.getWidgetId());
+        r.setSensorId(info.getSensorId());
+        r.setSensorName(info.getSensorName());
+        r.setSensorDisplayType(info.getSensorDisplayType());
+        r.setSensorUpdate(info.getSensorUpdate());
+        r.setSensorValue(info.getSensorValue());
+        r.setSensorUnit(info.getSensorUnit());
+        r.setSensorIcon(info.getSensorIcon());
+        r.setTransparent(info.getTransparent());
+        r.setUserId(info.getUserId());
+        r.setUpdateInterval(info.getUpdateInterval());
+        r.setIsUpdating(info.getIsUpdating());
+        r.setClientId(info.getClientId());
+        r.setUserUuid(info.getUserUuid());
+        return r;
+    }
+}
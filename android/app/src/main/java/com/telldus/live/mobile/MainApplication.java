@@ -20,7 +20,10 @@
 package com.telldus.live.mobile;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 
 import com.facebook.react.ReactApplication;
 import com.facebook.react.ReactInstanceManager;
@@ -33,10 +36,13 @@ import com.facebook.react.PackageList;
 import com.facebook.hermes.reactexecutor.HermesExecutorFactory;
 import com.facebook.react.bridge.JavaScriptExecutorFactory;
 
+import java.util.HashMap;
 import java.util.List;
 import java.lang.reflect.InvocationTargetException;
 
 import com.telldus.live.mobile.WidgetPackage;
+import com.telldus.live.mobile.Utility.WidgetBitmapCache;
+import com.telldus.live.mobile.Utility.WidgetDateFormats;
 
 public class MainApplication extends Application implements ReactApplication {
 
@@ -76,5 +82,26 @@ public class MainApplication extends Application implements ReactApplication {
 		MainActivity.currentLocale = getResources().getConfiguration().locale.toString();
 
 		SoLoader.init(this, /* native exopackage */ false);
+
+		IntentFilter filter = new IntentFilter();
+		filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+		filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+		registerReceiver(mDateFormatsReceiver, filter);
+	}
+
+	// Formatters are cached per locale and timezone, drop them and show the dates in the new setting.
+	private final BroadcastReceiver mDateFormatsReceiver = new BroadcastReceiver() {
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			WidgetDateFormats.clear();
+			WidgetsUpdater wUpdater = new WidgetsUpdater();
+			wUpdater.updateAllWidgets(context, new HashMap());
+		}
+	};
+
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		WidgetBitmapCache.onTrimMemory(level);
 	}
 }
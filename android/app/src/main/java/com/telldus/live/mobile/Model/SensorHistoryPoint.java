@@ -0,0 +1,30 @@
+package com.telldus.live.mobile.Model;
+
+public class SensorHistoryPoint {
+    long time;
+    double value;
+
+    public SensorHistoryPoint() {
+    }
+
+    public SensorHistoryPoint(long time, double value) {
+        this.time = time;
+        this.value = value;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public long getTime() {
+        return this.time;
+    }
+
+    public void setValue(double value) {
+        this.value = value;
+    }
+
+    public double getValue() {
+        return this.value;
+    }
+}
@@ -48,11 +48,14 @@ import com.telldus.live.mobile.Database.PrefManager;
 import com.telldus.live.mobile.Model.DeviceInfo;
 import com.telldus.live.mobile.Utility.Constants;
 import com.telldus.live.mobile.Utility.DevicesUtilities;
+import com.telldus.live.mobile.API.DeviceStateConfirmationPoller;
 import com.telldus.live.mobile.API.DevicesAPI;
 import com.telldus.live.mobile.API.OnAPITaskComplete;
 import com.telldus.live.mobile.Utility.CommonUtilities;
 import com.telldus.live.mobile.API.UserAPI;
 import com.telldus.live.mobile.Utility.WidgetUtilities;
+import com.telldus.live.mobile.Utility.WidgetRenderState;
+import com.telldus.live.mobile.Utility.SupportedMethods;
 
 import static android.util.TypedValue.COMPLEX_UNIT_SP;
 /**
@@ -93,12 +96,24 @@ public class NewAppWidget extends AppWidgetProvider {
     private Handler handlerResetDeviceStateToNull;
     private Runnable runnableResetDeviceStateToNull;
 
+    /**
+     * Queues a render of the widget on WidgetRenderQueue, see renderAppWidget.
+     */
     static void updateAppWidget(
             Context context,
             AppWidgetManager appWidgetManager,
             int appWidgetId,
             Map extraArgs
     ) {
+        WidgetRenderQueue.enqueue(context, NewAppWidget.class, appWidgetId, extraArgs);
+    }
+
+    static void renderAppWidget(
+            Context context,
+            AppWidgetManager appWidgetManager,
+            int appWidgetId,
+            Map extraArgs
+    ) {
 
         PrefManager prefManager = new PrefManager(context);
         String accessToken = prefManager.getAccessToken();
@@ -131,7 +146,7 @@ public class NewAppWidget extends AppWidgetProvider {
         Boolean isSameAccount = userId.trim().equals(currentUserId.trim());
         if (!isSameAccount) {
             RemoteViews remoteViews = WidgetUtilities.setUIWhenDifferentAccount(context, fontSizeFive, userId);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
 
             return;
         }
@@ -139,7 +154,7 @@ public class NewAppWidget extends AppWidgetProvider {
         Integer deviceId = DeviceWidgetInfo.getDeviceId();
         if (deviceId.intValue() == -1) {
             RemoteViews remoteViews = WidgetUtilities.setUIWhenItemNotFound(context, fontSizeFive, iconWidth / 2);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
             return;
         }
 
@@ -154,23 +169,22 @@ public class NewAppWidget extends AppWidgetProvider {
         String transparent = DeviceWidgetInfo.getTransparent();
 
         DevicesUtilities deviceUtils = new DevicesUtilities();
-        Map<String, Boolean> supportedMethods = deviceUtils.getSupportedMethods(methods);
-        Map<String, String> actionIconSet = deviceUtils.getDeviceActionIcon(deviceType, state, supportedMethods);
+        Map<String, String> actionIconSet = deviceUtils.getDeviceActionIcon(deviceType, state, methods);
 
-        Integer buttonsCount = supportedMethods.size();
+        Integer buttonsCount = SupportedMethods.of(methods).size();
 
         String onActionIcon = actionIconSet.get("TURNON");
         String offActionIcon = actionIconSet.get("TURNOFF");
-        Boolean hasBell = CommonUtilities.hasMethod(supportedMethods, "BELL");
-        Boolean hasUp = CommonUtilities.hasMethod(supportedMethods, "UP");
-        Boolean hasDown = CommonUtilities.hasMethod(supportedMethods, "DOWN");
-        Boolean hasStop = CommonUtilities.hasMethod(supportedMethods, "STOP");
-        Boolean hasOff = CommonUtilities.hasMethod(supportedMethods, "TURNOFF");
-        Boolean hasDim = CommonUtilities.hasMethod(supportedMethods, "DIM");
-        Boolean hasOn = CommonUtilities.hasMethod(supportedMethods, "TURNON");
-        Boolean hasRGB = CommonUtilities.hasMethod(supportedMethods, "RGB");
-
-        Boolean hasLearn = CommonUtilities.hasMethod(supportedMethods, "LEARN");
+        Boolean hasBell = CommonUtilities.hasMethod(methods, SupportedMethods.BELL);
+        Boolean hasUp = CommonUtilities.hasMethod(methods, SupportedMethods.UP);
+        Boolean hasDown = CommonUtilities.hasMethod(methods, SupportedMethods.DOWN);
+        Boolean hasStop = CommonUtilities.hasMethod(methods, SupportedMethods.STOP);
+        Boolean hasOff = CommonUtilities.hasMethod(methods, SupportedMethods.TURNOFF);
+        Boolean hasDim = CommonUtilities.hasMethod(methods, SupportedMethods.DIM);
+        Boolean hasOn = CommonUtilities.hasMethod(methods, SupportedMethods.TURNON);
+        Boolean hasRGB = CommonUtilities.hasMethod(methods, SupportedMethods.RGB);
+
+        Boolean hasLearn = CommonUtilities.hasMethod(methods, SupportedMethods.LEARN);
         if (hasLearn) {
             buttonsCount = buttonsCount - 1;
         }
@@ -1010,8 +1024,8 @@ public class NewAppWidget extends AppWidgetProvider {
             iconWidth = (int) (iconWidth * 0.3);
             int padding = (int) (iconWidth * 0.3) + 8;
 
-            views.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.icon_premium), iconWidth, iconWidth));
-            views.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.shape_circle), iconWidth + padding, iconWidth + padding));
+            views.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(R.drawable.icon_premium, iconWidth, iconWidth, context));
+            views.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(R.drawable.shape_circle, iconWidth + padding, iconWidth + padding, context));
             views.setTextViewTextSize(R.id.textPremiumRequired, COMPLEX_UNIT_SP, fontSizeFive);
         } else {
             views.setViewVisibility(R.id.premiumRequiredInfo, View.GONE);
@@ -1027,12 +1041,14 @@ public class NewAppWidget extends AppWidgetProvider {
             views.setTextColor(R.id.txtWidgetTitle, ContextCompat.getColor(context, R.color.white));
         }
         // Instruct the widget manager to update the widget
-        appWidgetManager.updateAppWidget(appWidgetId, views);
+        String fingerprint = WidgetRenderState.fingerprint(context, appWidgetManager, appWidgetId, extraArgs,
+                WidgetRenderState.describe(DeviceWidgetInfo), normalizeUI && WidgetRenderState.isShowingAction(DeviceWidgetInfo));
+        WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, views, fingerprint);
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager, int appWidgetId, Bundle newOptions) {
-        updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+        WidgetRenderQueue.enqueue(context, NewAppWidget.class, new int[]{appWidgetId}, new HashMap(), goAsync());
         super.onAppWidgetOptionsChanged(context, appWidgetManager, appWidgetId, newOptions);
     }
 
@@ -1040,8 +1056,10 @@ public class NewAppWidget extends AppWidgetProvider {
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         // There may be multiple widgets active, so update all of them
         for (int appWidgetId : appWidgetIds) {
-            updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+            // The launcher asked for it, send it even if nothing changed.
+            WidgetRenderState.forget(appWidgetId);
         }
+        WidgetRenderQueue.enqueue(context, NewAppWidget.class, appWidgetIds, new HashMap(), goAsync());
     }
 
     private static PendingIntent getPendingSelf(Context context, String action, int id) {
@@ -1205,6 +1223,13 @@ public class NewAppWidget extends AppWidgetProvider {
         MyDBHandler db = new MyDBHandler(context);
         PrefManager prefManager = new PrefManager(context);
         for (int appWidgetId : appWidgetIds) {
+            WidgetRenderState.forget(appWidgetId);
+            WidgetRenderQueue.forget(appWidgetId);
+            DeviceInfo widgetInfo = db.findWidgetInfoDevice(appWidgetId);
+            if (widgetInfo != null) {
+                // Stop waiting for the state of an action sent from this widget.
+                DeviceStateConfirmationPoller.getInstance().cancel(widgetInfo.getDeviceId(), appWidgetId);
+            }
             boolean b = db.deleteWidgetInfoDevice(appWidgetId);
         }
     }
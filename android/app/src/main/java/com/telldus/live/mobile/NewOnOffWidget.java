@@ -52,11 +52,14 @@ import com.telldus.live.mobile.Model.DeviceInfo;
 import com.telldus.live.mobile.Utility.Constants;
 import com.telldus.live.mobile.Utility.DevicesUtilities;
 import com.telldus.live.mobile.Utility.CommonUtilities;
+import com.telldus.live.mobile.API.DeviceStateConfirmationPoller;
 import com.telldus.live.mobile.API.DevicesAPI;
 import com.telldus.live.mobile.API.UserAPI;
 import com.telldus.live.mobile.API.OnAPITaskComplete;
 import com.telldus.live.mobile.Utility.RGBUtilities;
 import com.telldus.live.mobile.Utility.WidgetUtilities;
+import com.telldus.live.mobile.Utility.WidgetRenderState;
+import com.telldus.live.mobile.Utility.SupportedMethods;
 
 import static android.util.TypedValue.COMPLEX_UNIT_SP;
 
@@ -86,11 +89,23 @@ public class NewOnOffWidget extends AppWidgetProvider {
     Handler handlerResetDeviceStateToNull;
     Runnable runnableResetDeviceStateToNull;
 
+    /**
+     * Queues a render of the widget on WidgetRenderQueue, see renderAppWidget.
+     */
     static void updateAppWidget(
             Context context,
             AppWidgetManager appWidgetManager,
             int appWidgetId,
             Map extraArgs
+    ) {
+        WidgetRenderQueue.enqueue(context, NewOnOffWidget.class, appWidgetId, extraArgs);
+    }
+
+    static void renderAppWidget(
+            Context context,
+            AppWidgetManager appWidgetManager,
+            int appWidgetId,
+            Map extraArgs
     ) {
         PrefManager prefManager = new PrefManager(context);
         String accessToken = prefManager.getAccessToken();
@@ -124,7 +139,7 @@ public class NewOnOffWidget extends AppWidgetProvider {
         Boolean isSameAccount = userId.trim().equals(currentUserId.trim());
         if (!isSameAccount) {
             RemoteViews remoteViews = WidgetUtilities.setUIWhenDifferentAccount(context, fontSizeFive, userId);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
 
             return;
         }
@@ -132,7 +147,7 @@ public class NewOnOffWidget extends AppWidgetProvider {
         Integer deviceId = DeviceWidgetInfo.getDeviceId();
         if (deviceId.intValue() == -1) {
             RemoteViews remoteViews = WidgetUtilities.setUIWhenItemNotFound(context, (int) (fontSizeFive * 1.2), iconWidth / 2);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
             return;
         }
 
@@ -152,8 +167,7 @@ public class NewOnOffWidget extends AppWidgetProvider {
         String requestedSecStateValue = DeviceWidgetInfo.getRequestedSecStateValue();
 
         DevicesUtilities deviceUtils = new DevicesUtilities();
-        Map<String, Boolean> supportedMethods = deviceUtils.getSupportedMethods(methods);
-        Map<String, String> actionIconSet = deviceUtils.getDeviceActionIcon(deviceType, state, supportedMethods);
+        Map<String, String> actionIconSet = deviceUtils.getDeviceActionIcon(deviceType, state, methods);
 
         RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.new_on_off_widget);
 
@@ -161,11 +175,11 @@ public class NewOnOffWidget extends AppWidgetProvider {
         long now = new Date().getTime() / 1000;
         Boolean isBasicUser = pro == -1 || pro < now;
 
-        Boolean hasOn = CommonUtilities.hasMethod(supportedMethods, "TURNON");
-        Boolean hasOff = CommonUtilities.hasMethod(supportedMethods, "TURNOFF");
-        Boolean hasRGB = CommonUtilities.hasMethod(supportedMethods, "RGB");
-        Boolean hasDIM = CommonUtilities.hasMethod(supportedMethods, "DIM");
-        Boolean hasBell = CommonUtilities.hasMethod(supportedMethods, "BELL");
+        Boolean hasOn = CommonUtilities.hasMethod(methods, SupportedMethods.TURNON);
+        Boolean hasOff = CommonUtilities.hasMethod(methods, SupportedMethods.TURNOFF);
+        Boolean hasRGB = CommonUtilities.hasMethod(methods, SupportedMethods.RGB);
+        Boolean hasDIM = CommonUtilities.hasMethod(methods, SupportedMethods.DIM);
+        Boolean hasBell = CommonUtilities.hasMethod(methods, SupportedMethods.BELL);
 
         views.setOnClickPendingIntent(R.id.onCover, getPendingSelf(context, ACTION_ON, appWidgetId));
         views.setOnClickPendingIntent(R.id.offCover, getPendingSelf(context, ACTION_OFF, appWidgetId));
@@ -778,8 +792,8 @@ public class NewOnOffWidget extends AppWidgetProvider {
             iconWidth = (int) (iconWidth * 0.3);
             int padding = (int) (iconWidth * 0.3) + 8;
 
-            views.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.icon_premium), iconWidth, iconWidth));
-            views.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.shape_circle), iconWidth + padding, iconWidth + padding));
+            views.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(R.drawable.icon_premium, iconWidth, iconWidth, context));
+            views.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(R.drawable.shape_circle, iconWidth + padding, iconWidth + padding, context));
             views.setTextViewTextSize(R.id.textPremiumRequired, COMPLEX_UNIT_SP, fontSizeFive);
         } else {
             views.setViewVisibility(R.id.premiumRequiredInfo, View.GONE);
@@ -795,7 +809,9 @@ public class NewOnOffWidget extends AppWidgetProvider {
             views.setTextColor(R.id.txtWidgetTitle, ContextCompat.getColor(context, R.color.white));
         }
         // Instruct the widget manager to update the widget
-        appWidgetManager.updateAppWidget(appWidgetId, views);
+        String fingerprint = WidgetRenderState.fingerprint(context, appWidgetManager, appWidgetId, extraArgs,
+                WidgetRenderState.describe(DeviceWidgetInfo), normalizeUI && WidgetRenderState.isShowingAction(DeviceWidgetInfo));
+        WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, views, fingerprint);
     }
 
     private static PendingIntent getPendingSelf(Context context, String action, int id) {
@@ -807,7 +823,7 @@ public class NewOnOffWidget extends AppWidgetProvider {
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager, int appWidgetId, Bundle newOptions) {
-        updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+        WidgetRenderQueue.enqueue(context, NewOnOffWidget.class, new int[]{appWidgetId}, new HashMap(), goAsync());
         super.onAppWidgetOptionsChanged(context, appWidgetManager, appWidgetId, newOptions);
     }
 
@@ -815,8 +831,10 @@ public class NewOnOffWidget extends AppWidgetProvider {
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         // There may be multiple widgets active, so update all of them
         for (int appWidgetId : appWidgetIds) {
-            updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+            // The launcher asked for it, send it even if nothing changed.
+            WidgetRenderState.forget(appWidgetId);
         }
+        WidgetRenderQueue.enqueue(context, NewOnOffWidget.class, appWidgetIds, new HashMap(), goAsync());
     }
 
     @Override
@@ -826,6 +844,13 @@ public class NewOnOffWidget extends AppWidgetProvider {
         PrefManager prefManager = new PrefManager(context);
 
         for (int appWidgetId : appWidgetIds) {
+            WidgetRenderState.forget(appWidgetId);
+            WidgetRenderQueue.forget(appWidgetId);
+            DeviceInfo widgetInfo = db.findWidgetInfoDevice(appWidgetId);
+            if (widgetInfo != null) {
+                // Stop waiting for the state of an action sent from this widget.
+                DeviceStateConfirmationPoller.getInstance().cancel(widgetInfo.getDeviceId(), appWidgetId);
+            }
             boolean b = db.deleteWidgetInfoDevice(appWidgetId);
         }
     }
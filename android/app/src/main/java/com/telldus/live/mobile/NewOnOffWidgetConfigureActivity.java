@@ -59,6 +59,7 @@ import com.telldus.live.mobile.Utility.DevicesUtilities;
 import com.telldus.live.mobile.API.API;
 import com.telldus.live.mobile.API.OnAPITaskComplete;
 import com.telldus.live.mobile.API.GatewaysAPI;
+import com.telldus.live.mobile.Utility.TypefaceCache;
 
 public class NewOnOffWidgetConfigureActivity extends Activity {
     private static final String ACTION_ON = "ACTION_ON";
@@ -161,8 +162,8 @@ public class NewOnOffWidgetConfigureActivity extends Activity {
         TextView infoText = (TextView)findViewById(R.id.infoText);
         screenCover = (View)findViewById(R.id.screenCover);
 
-        Typeface titleFont = Typeface.createFromAsset(getAssets(),"fonts/RobotoLight.ttf");
-        Typeface subtitleFont = Typeface.createFromAsset(getAssets(),"fonts/Roboto-Regular.ttf");
+        Typeface titleFont = TypefaceCache.get(this, TypefaceCache.ROBOTO_LIGHT);
+        Typeface subtitleFont = TypefaceCache.get(this, TypefaceCache.ROBOTO_REGULAR);
         navPosterh1 = (TextView)findViewById(R.id.navPosterh1);
         navPosterh2 = (TextView)findViewById(R.id.navPosterh2);
         navPosterh1.setTypeface(titleFont);
@@ -64,6 +64,7 @@ import com.telldus.live.mobile.Utility.DevicesUtilities;
 import com.telldus.live.mobile.API.API;
 import com.telldus.live.mobile.API.OnAPITaskComplete;
 import com.telldus.live.mobile.API.GatewaysAPI;
+import com.telldus.live.mobile.Utility.TypefaceCache;
 
 /**
  * The configuration screen for the {@link NewRGBWidget NewRGBWidget} AppWidget.
@@ -174,8 +175,8 @@ public class NewRGBConfigureActivity extends Activity {
 
         navPosterh1 = (TextView)findViewById(R.id.navPosterh1);
         navPosterh2 = (TextView)findViewById(R.id.navPosterh2);
-        Typeface titleFont = Typeface.createFromAsset(getAssets(),"fonts/RobotoLight.ttf");
-        Typeface subtitleFont = Typeface.createFromAsset(getAssets(),"fonts/Roboto-Regular.ttf");
+        Typeface titleFont = TypefaceCache.get(this, TypefaceCache.ROBOTO_LIGHT);
+        Typeface subtitleFont = TypefaceCache.get(this, TypefaceCache.ROBOTO_REGULAR);
         navPosterh1.setTypeface(titleFont);
         navPosterh2.setTypeface(titleFont);
         navPosterh1.setText(getResources().getString(R.string.reserved_widget_android_device_configure_header_one));
@@ -51,6 +51,7 @@ import java.util.Date;
 import java.util.Arrays;
 import java.util.List;
 
+import com.telldus.live.mobile.API.DeviceStateConfirmationPoller;
 import com.telldus.live.mobile.API.DevicesAPI;
 import com.telldus.live.mobile.Database.MyDBHandler;
 import com.telldus.live.mobile.Database.PrefManager;
@@ -62,6 +63,8 @@ import com.telldus.live.mobile.Utility.CommonUtilities;
 import com.telldus.live.mobile.API.UserAPI;
 import com.telldus.live.mobile.Utility.RGBUtilities;
 import com.telldus.live.mobile.Utility.WidgetUtilities;
+import com.telldus.live.mobile.Utility.WidgetRenderState;
+import com.telldus.live.mobile.Utility.SupportedMethods;
 
 import static android.util.TypedValue.COMPLEX_UNIT_SP;
 
@@ -82,8 +85,16 @@ public class NewRGBWidget extends AppWidgetProvider {
     Handler handlerResetDeviceStateToNull;
     Runnable runnableResetDeviceStateToNull;
 
+    /**
+     * Queues a render of the widget on WidgetRenderQueue, see renderAppWidget.
+     */
     static void updateAppWidget(Context context, AppWidgetManager appWidgetManager,
                                 int appWidgetId, Map extraArgs) {
+        WidgetRenderQueue.enqueue(context, NewRGBWidget.class, appWidgetId, extraArgs);
+    }
+
+    static void renderAppWidget(Context context, AppWidgetManager appWidgetManager,
+                                int appWidgetId, Map extraArgs) {
 
         PrefManager prefManager = new PrefManager(context);
         String accessToken = prefManager.getAccessToken();
@@ -115,7 +126,7 @@ public class NewRGBWidget extends AppWidgetProvider {
         Boolean isSameAccount = userId.trim().equals(currentUserId.trim());
         if (!isSameAccount) {
             RemoteViews remoteViews = WidgetUtilities.setUIWhenDifferentAccount(context, fontSizeSix, userId);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
 
             return;
         }
@@ -123,7 +134,7 @@ public class NewRGBWidget extends AppWidgetProvider {
         Integer deviceId = DeviceWidgetInfo.getDeviceId();
         if (deviceId.intValue() == -1) {
             RemoteViews remoteViews = WidgetUtilities.setUIWhenItemNotFound(context, fontSizeFive, iconWidth / 2);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
             return;
         }
 
@@ -141,9 +152,8 @@ public class NewRGBWidget extends AppWidgetProvider {
         secondarySetting = secondarySetting == null ? "0" : secondarySetting;
 
         DevicesUtilities deviceUtils = new DevicesUtilities();
-        Map<String, Boolean> supportedMethods = deviceUtils.getSupportedMethods(methods);
 
-        Boolean hasRGB = CommonUtilities.hasMethod(supportedMethods,"RGB");
+        Boolean hasRGB = CommonUtilities.hasMethod(methods, SupportedMethods.RGB);
 
         RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.new_rgb_widget);
 
@@ -189,7 +199,7 @@ public class NewRGBWidget extends AppWidgetProvider {
                 views.setViewVisibility(R.id.palette, View.GONE);
 
                 int imageSize = (int) (iconWidth * 0.8);
-                views.setImageViewBitmap(R.id.palette_rainbow, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.rgb_rainbow), imageSize, imageSize));
+                views.setImageViewBitmap(R.id.palette_rainbow, CommonUtilities.drawableToBitmap(R.drawable.rgb_rainbow, imageSize, imageSize, context));
             } else {
                 views.setViewVisibility(R.id.palette_rainbow, View.GONE);
                 views.setViewVisibility(R.id.palette, View.VISIBLE);
@@ -311,8 +321,8 @@ public class NewRGBWidget extends AppWidgetProvider {
             iconWidth = (int) (iconWidth * 0.3);
             int padding = (int) (iconWidth * 0.3) + 8;
 
-            views.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.icon_premium), iconWidth, iconWidth));
-            views.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.shape_circle), iconWidth + padding, iconWidth + padding));
+            views.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(R.drawable.icon_premium, iconWidth, iconWidth, context));
+            views.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(R.drawable.shape_circle, iconWidth + padding, iconWidth + padding, context));
             views.setTextViewTextSize(R.id.textPremiumRequired, COMPLEX_UNIT_SP, (int) (fontSizeFive * 0.8));
         } else {
             views.setViewVisibility(R.id.premiumRequiredInfo, View.GONE);
@@ -328,12 +338,14 @@ public class NewRGBWidget extends AppWidgetProvider {
             views.setTextColor(R.id.txtWidgetTitle, ContextCompat.getColor(context, R.color.white));
         }
         // Instruct the widget manager to update the widget
-        appWidgetManager.updateAppWidget(appWidgetId, views);
+        String fingerprint = WidgetRenderState.fingerprint(context, appWidgetManager, appWidgetId, extraArgs,
+                WidgetRenderState.describe(DeviceWidgetInfo), normalizeUI && WidgetRenderState.isShowingAction(DeviceWidgetInfo));
+        WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, views, fingerprint);
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager, int appWidgetId, Bundle newOptions) {
-        updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+        WidgetRenderQueue.enqueue(context, NewRGBWidget.class, new int[]{appWidgetId}, new HashMap(), goAsync());
         super.onAppWidgetOptionsChanged(context, appWidgetManager, appWidgetId, newOptions);
     }
 
@@ -341,8 +353,10 @@ public class NewRGBWidget extends AppWidgetProvider {
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         // There may be multiple widgets active, so update all of them
         for (int appWidgetId : appWidgetIds) {
-            updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+            // The launcher asked for it, send it even if nothing changed.
+            WidgetRenderState.forget(appWidgetId);
         }
+        WidgetRenderQueue.enqueue(context, NewRGBWidget.class, appWidgetIds, new HashMap(), goAsync());
     }
 
     private static PendingIntent getPendingSelf(Context context, String action, int id) {
@@ -456,6 +470,13 @@ public class NewRGBWidget extends AppWidgetProvider {
         MyDBHandler db = new MyDBHandler(context);
         PrefManager prefManager = new PrefManager(context);
         for (int appWidgetId : appWidgetIds) {
+            WidgetRenderState.forget(appWidgetId);
+            WidgetRenderQueue.forget(appWidgetId);
+            DeviceInfo widgetInfo = db.findWidgetInfoDevice(appWidgetId);
+            if (widgetInfo != null) {
+                // Stop waiting for the state of an action sent from this widget.
+                DeviceStateConfirmationPoller.getInstance().cancel(widgetInfo.getDeviceId(), appWidgetId);
+            }
             boolean b = db.deleteWidgetInfoDevice(appWidgetId);
         }
     }
@@ -35,7 +35,6 @@ import android.util.Log;
 import com.androidnetworking.error.ANError;
 
 import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.text.DateFormat;
 
@@ -47,12 +46,16 @@ import com.telldus.live.mobile.Utility.Constants;
 import com.telldus.live.mobile.Utility.SensorsUtilities;
 import com.telldus.live.mobile.API.API;
 import com.telldus.live.mobile.API.OnAPITaskComplete;
+import com.telldus.live.mobile.API.SensorsListCache;
+import com.telldus.live.mobile.Utility.SensorPollingPolicy;
 import com.telldus.live.mobile.Utility.SensorUpdateAlarmManager;
 import com.telldus.live.mobile.Utility.CommonUtilities;
 import com.telldus.live.mobile.API.UserAPI;
 
 import com.androidnetworking.AndroidNetworking;
 import com.telldus.live.mobile.Utility.WidgetUtilities;
+import com.telldus.live.mobile.Utility.WidgetRenderState;
+import com.telldus.live.mobile.Utility.WidgetDateFormats;
 
 import org.json.JSONObject;
 import org.json.JSONArray;
@@ -75,11 +78,23 @@ public class NewSensorWidget extends AppWidgetProvider {
 
     private static final String API_TAG = "SensorApi";
 
+    /**
+     * Queues a render of the widget on WidgetRenderQueue, see renderAppWidget.
+     */
     static void updateAppWidget(
             Context context,
             AppWidgetManager appWidgetManager,
             int appWidgetId,
             Map extraArgs
+    ) {
+        WidgetRenderQueue.enqueue(context, NewSensorWidget.class, appWidgetId, extraArgs);
+    }
+
+    static void renderAppWidget(
+            Context context,
+            AppWidgetManager appWidgetManager,
+            int appWidgetId,
+            Map extraArgs
     ) {
         PrefManager prefManager = new PrefManager(context);
         String accessToken = prefManager.getAccessToken();
@@ -125,7 +140,7 @@ public class NewSensorWidget extends AppWidgetProvider {
             sensorUpdateAlarmManager.stopAlarm(appWidgetId, NewSensorWidget.class);
 
             RemoteViews remoteViews = WidgetUtilities.setUIWhenDifferentAccount(context, fontSizeFive, userId);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
 
             return;
         }
@@ -133,7 +148,7 @@ public class NewSensorWidget extends AppWidgetProvider {
         Integer sensorId = sensorWidgetInfo.getSensorId();
         if (sensorId.intValue() == -1) {
             RemoteViews remoteViews = WidgetUtilities.setUIWhenItemNotFound(context, fontSizeFive, iconWidth / 2);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
 
             sensorUpdateAlarmManager.stopAlarm(appWidgetId, NewSensorWidget.class);
             return;
@@ -179,12 +194,8 @@ public class NewSensorWidget extends AppWidgetProvider {
         Date date = new Date(time);
 
         Locale locale = Locale.getDefault();
-        DateFormat dMWY = formatDate(locale);
-        dMWY.setTimeZone(TimeZone.getTimeZone(timezone));
-        String formattedDate = dMWY.format(date);
-        DateFormat tMWY = (SimpleDateFormat) DateFormat.getTimeInstance(DateFormat.SHORT, locale);
-        tMWY.setTimeZone(TimeZone.getTimeZone(timezone));
-        String formattedTime = tMWY.format(date);
+        String formattedDate = WidgetDateFormats.formatDate(date, locale, timezone);
+        String formattedTime = WidgetDateFormats.formatTime(date, locale, timezone);
 
         String formattedDT = isNearly1By1 ? formattedTime : formattedDate + " " + formattedTime;
 
@@ -296,8 +307,8 @@ public class NewSensorWidget extends AppWidgetProvider {
             iconWidth = (int) (iconWidth * 0.3);
             int padding = (int) (iconWidth * 0.3) + 8;
 
-            view.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.icon_premium), iconWidth, iconWidth));
-            view.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.shape_circle), iconWidth + padding, iconWidth + padding));
+            view.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(R.drawable.icon_premium, iconWidth, iconWidth, context));
+            view.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(R.drawable.shape_circle, iconWidth + padding, iconWidth + padding, context));
             view.setTextViewTextSize(R.id.textPremiumRequired, COMPLEX_UNIT_SP, fontSizeFive);
 
             sensorUpdateAlarmManager.stopAlarm(appWidgetId, NewSensorWidget.class);
@@ -311,8 +322,19 @@ public class NewSensorWidget extends AppWidgetProvider {
             }
         }
 
+        // A new reading only changes the texts, send only those when nothing else changed.
+        RemoteViews contentView = new RemoteViews(context.getPackageName(), R.layout.configurable_sensor_widget);
+        contentView.setTextViewText(R.id.txtSensorType, widgetText);
+        contentView.setTextViewText(R.id.txtHistoryInfo, formattedDT);
+        contentView.setTextViewText(R.id.txtSensorValue, formattedValue);
+        contentView.setTextViewText(R.id.txtSensorUnit, sensorUnit);
+        String contentFingerprint = widgetText + "|" + formattedDT + "|" + formattedValue + "|" + sensorUnit;
+        String layoutFingerprint = WidgetRenderState.fingerprint(context, appWidgetManager, appWidgetId, extraArgs,
+                sensorId, widgetType, sensorIcon, transparent, isUpdating, timeAgo >= limit, timezone,
+                normalizeUI && "true".equals(isUpdating));
+
         // Instruct the widget manager to update the widget
-        appWidgetManager.updateAppWidget(appWidgetId, view);
+        WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, view, layoutFingerprint, contentView, contentFingerprint);
     }
 
     public static void showFlashIndicator(RemoteViews views, int visibleFlashId, int flashId, int drawable) {
@@ -326,7 +348,7 @@ public class NewSensorWidget extends AppWidgetProvider {
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager, int appWidgetId, Bundle newOptions) {
-        updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+        WidgetRenderQueue.enqueue(context, NewSensorWidget.class, new int[]{appWidgetId}, new HashMap(), goAsync());
         super.onAppWidgetOptionsChanged(context, appWidgetManager, appWidgetId, newOptions);
     }
 
@@ -339,8 +361,10 @@ public class NewSensorWidget extends AppWidgetProvider {
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         // There may be multiple widgets active, so update all of them
         for (int appWidgetId : appWidgetIds) {
-            updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+            // The launcher asked for it, send it even if nothing changed.
+            WidgetRenderState.forget(appWidgetId);
         }
+        WidgetRenderQueue.enqueue(context, NewSensorWidget.class, appWidgetIds, new HashMap(), goAsync());
     }
 
     @Override
@@ -349,6 +373,8 @@ public class NewSensorWidget extends AppWidgetProvider {
         MyDBHandler db = new MyDBHandler(context);
         SensorUpdateAlarmManager sensorUpdateAlarmManager = new SensorUpdateAlarmManager(context);
         for (int appWidgetId : appWidgetIds) {
+            WidgetRenderState.forget(appWidgetId);
+            WidgetRenderQueue.forget(appWidgetId);
             sensorUpdateAlarmManager.stopAlarm(appWidgetId, NewSensorWidget.class);
             boolean b = db.deleteWidgetInfoSensor(appWidgetId);
         }
@@ -415,6 +441,10 @@ public class NewSensorWidget extends AppWidgetProvider {
             db.updateSensorIsUpdating(widgetId, "true");
             updateAppWidget(context, widgetManager, widgetId, new HashMap());
 
+            // User wants fresh values, go back to the configured interval as well.
+            SensorPollingPolicy pollingPolicy = new SensorPollingPolicy(context);
+            pollingPolicy.reset(widgetId);
+
             createSensorApi(sensorId, widgetId, db, context);
         }
 
@@ -434,68 +464,32 @@ public class NewSensorWidget extends AppWidgetProvider {
         return PendingIntent.getBroadcast(context, id, intent, 0);
     }
 
-    void createSensorApi(final Integer sensorId, final Integer widgetId, final MyDBHandler database, final Context context) {
+    public void createSensorApi(final Integer sensorId, final Integer widgetId, final MyDBHandler database, final Context context) {
+        createSensorApi(sensorId, widgetId, database, context, null);
+    }
+
+    /**
+     * Same as above, "callBack"(if not null) is called once the widget has been updated, or the request has failed.
+     */
+    public void createSensorApi(final Integer sensorId, final Integer widgetId, final MyDBHandler database, final Context context, final OnAPITaskComplete callBack) {
+        // Another widget has just downloaded the whole list, no need to ask for this sensor alone.
+        JSONObject cachedSensor = SensorsListCache.getInstance().findFreshSensorById(context, sensorId);
+        if (cachedSensor != null && cachedSensor.optJSONArray("data") != null) {
+            updateSensorInfo(cachedSensor, sensorId, widgetId, database, context);
+            if (callBack != null) {
+                callBack.onSuccess(cachedSensor, new HashMap<String, String>());
+            }
+            return;
+        }
+
         String params = "/sensor/info?id="+sensorId;
         API endPoints = new API();
         endPoints.callEndPoint(context, params, API_TAG, new OnAPITaskComplete() {
             @Override
             public void onSuccess(final JSONObject response, HashMap<String, String> authData) {
-                try {
-                    SensorInfo sensorWidgetInfo = database.findWidgetInfoSensor(widgetId);
-
-                    if (sensorWidgetInfo != null) {
-
-                        String error = response.optString("error");
-                        if (!error.isEmpty() && error != null) {
-                            String noSensorMessage = "The sensor with id \""+sensorId+"\" does not exist";
-                            if (String.valueOf(error).trim().equalsIgnoreCase(noSensorMessage.trim())) {
-                                database.updateSensorIdSensorWidget(-1, widgetId);
-
-                                AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-                                updateAppWidget(context, widgetManager, widgetId, new HashMap());
-                            }
-                            return;
-                        }
-
-                        JSONObject responseObject = new JSONObject(response.toString());
-                        JSONArray sensorData = responseObject.getJSONArray("data");
-
-                        SensorsUtilities sc = new SensorsUtilities();
-
-                        String sensorName = responseObject.optString("name");
-                        if (sensorName == null) {
-                            sensorName = context.getResources().getString(R.string.reserved_widget_android_unknown);
-                        }
-
-                        for (int j = 0; j < sensorData.length(); j++) {
-                            JSONObject currData = sensorData.getJSONObject(j);
-
-                            String lastUp = currData.optString("lastUpdated");
-                            String name = currData.optString("name");
-                            String scale = currData.optString("scale");
-                            String value = currData.optString("value");
-
-                            Map<String, Object> info = sc.getSensorInfo(name, scale, value, context);
-                            Object label = info.get("label").toString();
-                            Object unit = info.get("unit").toString();
-                            String labelUnit = label+"("+unit+")";
-
-                            String widgetLabelUnit = sensorWidgetInfo.getSensorDisplayType();
-                            if (widgetLabelUnit.equalsIgnoreCase(labelUnit)) {
-                                String senValue = info.get("value").toString();
-                                database.updateSensorInfo(sensorName, senValue, Long.parseLong(lastUp), widgetId);
-                            }
-                        }
-                    }
-                    database.updateSensorIsUpdating(widgetId, "false");
-
-                    AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-                    updateAppWidget(context, widgetManager, widgetId, new HashMap());
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                    database.updateSensorIsUpdating(widgetId, "false");
-                    AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-                    updateAppWidget(context, widgetManager, widgetId, new HashMap());
+                updateSensorInfo(response, sensorId, widgetId, database, context);
+                if (callBack != null) {
+                    callBack.onSuccess(response, authData);
                 }
             }
             @Override
@@ -503,10 +497,79 @@ public class NewSensorWidget extends AppWidgetProvider {
                 database.updateSensorIsUpdating(widgetId, "false");
                 AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
                 updateAppWidget(context, widgetManager, widgetId, new HashMap());
+                if (callBack != null) {
+                    callBack.onError(error);
+                }
             }
         });
     }
 
+    public void updateSensorInfo(final JSONObject response, final Integer sensorId, final Integer widgetId, final MyDBHandler database, final Context context) {
+        try {
+            SensorInfo sensorWidgetInfo = database.findWidgetInfoSensor(widgetId);
+
+            if (sensorWidgetInfo != null) {
+
+                String error = response.optString("error");
+                if (!error.isEmpty() && error != null) {
+                    String noSensorMessage = "The sensor with id \""+sensorId+"\" does not exist";
+                    if (String.valueOf(error).trim().equalsIgnoreCase(noSensorMessage.trim())) {
+                        database.updateSensorIdSensorWidget(-1, widgetId);
+
+                        AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
+                        updateAppWidget(context, widgetManager, widgetId, new HashMap());
+                    }
+                    return;
+                }
+
+                JSONObject responseObject = new JSONObject(response.toString());
+                JSONArray sensorData = responseObject.getJSONArray("data");
+
+                SensorsUtilities sc = new SensorsUtilities();
+
+                String sensorName = responseObject.optString("name");
+                if (sensorName == null) {
+                    sensorName = context.getResources().getString(R.string.reserved_widget_android_unknown);
+                }
+
+                for (int j = 0; j < sensorData.length(); j++) {
+                    JSONObject currData = sensorData.getJSONObject(j);
+
+                    // Values in "/sensors/list" might not carry their own timestamp.
+                    String lastUp = currData.optString("lastUpdated", responseObject.optString("lastUpdated"));
+                    if (lastUp.isEmpty()) {
+                        continue;
+                    }
+                    String name = currData.optString("name");
+                    String scale = currData.optString("scale");
+                    String value = currData.optString("value");
+
+                    database.addSensorHistorySample(sensorId, name, scale, Long.parseLong(lastUp), value);
+
+                    Map<String, Object> info = sc.getSensorInfo(name, scale, value, context);
+                    Object label = info.get("label").toString();
+                    Object unit = info.get("unit").toString();
+                    String labelUnit = label+"("+unit+")";
+
+                    String widgetLabelUnit = sensorWidgetInfo.getSensorDisplayType();
+                    if (widgetLabelUnit.equalsIgnoreCase(labelUnit)) {
+                        String senValue = info.get("value").toString();
+                        database.updateSensorInfo(sensorName, senValue, Long.parseLong(lastUp), widgetId);
+                    }
+                }
+            }
+            database.updateSensorIsUpdating(widgetId, "false");
+
+            AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
+            updateAppWidget(context, widgetManager, widgetId, new HashMap());
+        } catch (JSONException e) {
+            e.printStackTrace();
+            database.updateSensorIsUpdating(widgetId, "false");
+            AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
+            updateAppWidget(context, widgetManager, widgetId, new HashMap());
+        }
+    }
+
     public static String formatValue(CharSequence sensorValue) {
         if (sensorValue == null || sensorValue == "") {
             return "";
@@ -532,11 +595,7 @@ public class NewSensorWidget extends AppWidgetProvider {
     }
 
     public static DateFormat formatDate(Locale locale) {
-        SimpleDateFormat formattedDate = (SimpleDateFormat) DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
-        formattedDate.applyPattern(formattedDate.toPattern().replaceAll(
-                "([^\\p{Alpha}']|('[\\p{Alpha}]+'))*y+([^\\p{Alpha}']|('[\\p{Alpha}]+'))*",
-                ""));
-        return formattedDate;
+        return WidgetDateFormats.formatDate(locale);
     }
 
     public void updateUserProfile(final int widgetId, final Context context) {
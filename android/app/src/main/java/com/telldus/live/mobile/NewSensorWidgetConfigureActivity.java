@@ -59,6 +59,7 @@ import com.telldus.live.mobile.Utility.SensorsUtilities;
 import com.telldus.live.mobile.API.API;
 import com.telldus.live.mobile.API.OnAPITaskComplete;
 import com.telldus.live.mobile.API.GatewaysAPI;
+import com.telldus.live.mobile.Utility.TypefaceCache;
 
 public class NewSensorWidgetConfigureActivity extends Activity {
 
@@ -166,8 +167,8 @@ public class NewSensorWidgetConfigureActivity extends Activity {
         TextView infoText = (TextView)findViewById(R.id.infoText);
         screenCover = (View)findViewById(R.id.screenCover);
 
-        Typeface titleFont = Typeface.createFromAsset(getAssets(),"fonts/RobotoLight.ttf");
-        Typeface subtitleFont = Typeface.createFromAsset(getAssets(),"fonts/Roboto-Regular.ttf");
+        Typeface titleFont = TypefaceCache.get(this, TypefaceCache.ROBOTO_LIGHT);
+        Typeface subtitleFont = TypefaceCache.get(this, TypefaceCache.ROBOTO_REGULAR);
         navPosterh1 = (TextView) findViewById(R.id.navPosterh1);
         navPosterh2 = (TextView) findViewById(R.id.navPosterh2);
         navPosterh1.setTypeface(titleFont);
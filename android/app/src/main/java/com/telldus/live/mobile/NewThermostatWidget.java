@@ -48,7 +48,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Arrays;
 
-import com.telldus.live.mobile.API.SensorsAPI;
+import com.telldus.live.mobile.API.SensorsListCache;
 import com.telldus.live.mobile.Database.MyDBHandler;
 import com.telldus.live.mobile.Database.PrefManager;
 import com.telldus.live.mobile.Model.DeviceInfo;
@@ -60,6 +60,8 @@ import com.telldus.live.mobile.API.UserAPI;
 import com.telldus.live.mobile.API.OnAPITaskComplete;
 import com.telldus.live.mobile.Utility.SensorUpdateAlarmManager;
 import com.telldus.live.mobile.Utility.WidgetUtilities;
+import com.telldus.live.mobile.Utility.WidgetRenderState;
+import com.telldus.live.mobile.Utility.SupportedMethods;
 
 import static android.util.TypedValue.COMPLEX_UNIT_SP;
 
@@ -74,11 +76,23 @@ public class NewThermostatWidget extends AppWidgetProvider {
 
     public static final String ACTION_AUTO_UPDATE = "com.telldus.live.mobile.AUTO_UPDATE";
 
+    /**
+     * Queues a render of the widget on WidgetRenderQueue, see renderAppWidget.
+     */
     static void updateAppWidget(
             Context context,
             AppWidgetManager appWidgetManager,
             int appWidgetId,
             Map extraArgs
+    ) {
+        WidgetRenderQueue.enqueue(context, NewThermostatWidget.class, appWidgetId, extraArgs);
+    }
+
+    static void renderAppWidget(
+            Context context,
+            AppWidgetManager appWidgetManager,
+            int appWidgetId,
+            Map extraArgs
     ) {
         PrefManager prefManager = new PrefManager(context);
         String accessToken = prefManager.getAccessToken();
@@ -118,7 +132,7 @@ public class NewThermostatWidget extends AppWidgetProvider {
             sensorUpdateAlarmManager.stopAlarm(appWidgetId, NewThermostatWidget.class);
 
             RemoteViews remoteViews = WidgetUtilities.setUIWhenDifferentAccount(context, fontSizeFive, userId);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
 
             return;
         }
@@ -126,7 +140,7 @@ public class NewThermostatWidget extends AppWidgetProvider {
         Integer deviceId = DeviceWidgetInfo.getDeviceId();
         if (deviceId.intValue() == -1) {
             RemoteViews remoteViews = WidgetUtilities.setUIWhenItemNotFound(context, fontSizeFive, iconWidth / 2);
-            appWidgetManager.updateAppWidget(appWidgetId, remoteViews);
+            WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, remoteViews, null);
 
             sensorUpdateAlarmManager.stopAlarm(appWidgetId, NewThermostatWidget.class);
             return;
@@ -144,10 +158,9 @@ public class NewThermostatWidget extends AppWidgetProvider {
         secondaryStateValue = secondaryStateValue == "null" ? "" : secondaryStateValue;
 
         DevicesUtilities deviceUtils = new DevicesUtilities();
-        Map<String, Boolean> supportedMethods = deviceUtils.getSupportedMethods(methods);
-        Map<String, String> actionIconSet = deviceUtils.getDeviceActionIcon(deviceType, state, supportedMethods);
+        Map<String, String> actionIconSet = deviceUtils.getDeviceActionIcon(deviceType, state, methods);
 
-        Boolean hasThermo = ((supportedMethods.get("THERMOSTAT") != null) && supportedMethods.get("THERMOSTAT"));
+        Boolean hasThermo = CommonUtilities.hasMethod(methods, SupportedMethods.THERMOSTAT);
 
         RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.new_thermostat_widget);
 
@@ -306,8 +319,8 @@ public class NewThermostatWidget extends AppWidgetProvider {
             iconWidth = (int) (iconWidth * 0.3);
             int padding = (int) (iconWidth * 0.3) + 8;
 
-            views.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.icon_premium), iconWidth, iconWidth));
-            views.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(context.getDrawable(R.drawable.shape_circle), iconWidth + padding, iconWidth + padding));
+            views.setImageViewBitmap(R.id.icon_premium, CommonUtilities.drawableToBitmap(R.drawable.icon_premium, iconWidth, iconWidth, context));
+            views.setImageViewBitmap(R.id.icon_premium_bg_mask, CommonUtilities.drawableToBitmap(R.drawable.shape_circle, iconWidth + padding, iconWidth + padding, context));
             views.setTextViewTextSize(R.id.textPremiumRequired, COMPLEX_UNIT_SP, fontSizeFive);
 
             sensorUpdateAlarmManager.stopAlarm(appWidgetId, NewThermostatWidget.class);
@@ -338,7 +351,9 @@ public class NewThermostatWidget extends AppWidgetProvider {
             views.setTextColor(R.id.txtWidgetTitle, ContextCompat.getColor(context, R.color.white));
         }
         // Instruct the widget manager to update the widget
-        appWidgetManager.updateAppWidget(appWidgetId, views);
+        String fingerprint = WidgetRenderState.fingerprint(context, appWidgetManager, appWidgetId, extraArgs,
+                WidgetRenderState.describe(DeviceWidgetInfo), normalizeUI && WidgetRenderState.isShowingAction(DeviceWidgetInfo));
+        WidgetRenderState.updateAppWidget(appWidgetManager, appWidgetId, views, fingerprint);
     }
 
     public static void showFlashIndicator(RemoteViews views, int visibleFlashId, int flashId, int drawable) {
@@ -359,7 +374,7 @@ public class NewThermostatWidget extends AppWidgetProvider {
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager, int appWidgetId, Bundle newOptions) {
-        updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+        WidgetRenderQueue.enqueue(context, NewThermostatWidget.class, new int[]{appWidgetId}, new HashMap(), goAsync());
         super.onAppWidgetOptionsChanged(context, appWidgetManager, appWidgetId, newOptions);
     }
 
@@ -367,8 +382,10 @@ public class NewThermostatWidget extends AppWidgetProvider {
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
         // There may be multiple widgets active, so update all of them
         for (int appWidgetId : appWidgetIds) {
-            updateAppWidget(context, appWidgetManager, appWidgetId, new HashMap());
+            // The launcher asked for it, send it even if nothing changed.
+            WidgetRenderState.forget(appWidgetId);
         }
+        WidgetRenderQueue.enqueue(context, NewThermostatWidget.class, appWidgetIds, new HashMap(), goAsync());
     }
 
     @Override
@@ -380,6 +397,8 @@ public class NewThermostatWidget extends AppWidgetProvider {
         SensorUpdateAlarmManager sensorUpdateAlarmManager = new SensorUpdateAlarmManager(context);
 
         for (int appWidgetId : appWidgetIds) {
+            WidgetRenderState.forget(appWidgetId);
+            WidgetRenderQueue.forget(appWidgetId);
             sensorUpdateAlarmManager.stopAlarm(appWidgetId, NewThermostatWidget.class);
             boolean b = db.deleteWidgetInfoDevice(appWidgetId);
         }
@@ -455,17 +474,32 @@ public class NewThermostatWidget extends AppWidgetProvider {
             SensorUpdateAlarmManager sensorUpdateAlarmManager = new SensorUpdateAlarmManager(context);
             sensorUpdateAlarmManager.startAlarm(widgetId, updateInterval, NewThermostatWidget.class);
 
-            String methReq = widgetInfo.getMethodRequested();
-            String state = widgetInfo.getState();
-            String stateValue = widgetInfo.getDeviceStateValue();
-            String secStateValue = widgetInfo.getSecondaryStateValue();
+            autoUpdate(context, widgetInfo, db);
+        }
+    }
 
-            db.updateDeviceInfo(methReq, state, stateValue, 1, secStateValue, widgetId, null, null);
-            AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-            updateAppWidget(context, widgetManager, widgetId, new HashMap());
+    /**
+     * Shows the widget as updating, and fetches the latest temperature and mode/setpoint.
+     */
+    public void autoUpdate(Context context, DeviceInfo widgetInfo, MyDBHandler db) {
+        autoUpdate(context, widgetInfo, db, null);
+    }
 
-            updateThermostat(context, deviceId, widgetId, db);
-        }
+    /**
+     * Same as above, "onComplete"(if not null) is run once the widget has been updated with the fetched values.
+     */
+    public void autoUpdate(Context context, DeviceInfo widgetInfo, MyDBHandler db, Runnable onComplete) {
+        int widgetId = widgetInfo.getWidgetId();
+        String methReq = widgetInfo.getMethodRequested();
+        String state = widgetInfo.getState();
+        String stateValue = widgetInfo.getDeviceStateValue();
+        String secStateValue = widgetInfo.getSecondaryStateValue();
+
+        db.updateDeviceInfo(methReq, state, stateValue, 1, secStateValue, widgetId, null, null);
+        AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
+        updateAppWidget(context, widgetManager, widgetId, new HashMap());
+
+        updateThermostat(context, widgetInfo.getDeviceId(), widgetId, db, onComplete);
     }
 
     public void updateUserProfile(final int widgetId, final Context context) {
@@ -482,135 +516,138 @@ public class NewThermostatWidget extends AppWidgetProvider {
         });
     }
 
-    void updateThermostat(final Context context, final int deviceId, final int widgetId, final MyDBHandler db) {
+    void updateThermostat(final Context context, final int deviceId, final int widgetId, final MyDBHandler db, final Runnable onComplete) {
+        // Sensor list and device info do not depend on each other, fetch both at once and
+        // update the widget when both have completed, with whatever has succeeded.
+        final JSONObject[] sensorsListResult = new JSONObject[1];
+        final JSONObject[] deviceInfoResult = new JSONObject[1];
+        final int[] pendingRequests = {2};
+        final Runnable onRequestsComplete = new Runnable() {
+            @Override
+            public void run() {
+                applyThermostatData(context, widgetId, db, sensorsListResult[0], deviceInfoResult[0]);
+                if (onComplete != null) {
+                    onComplete.run();
+                }
+            }
+        };
+
+        // Shared with the other thermostat widgets refreshing around the same time.
+        SensorsListCache.getInstance().getSensorsList(context, "SensorsApi", new OnAPITaskComplete() {
+            @Override
+            public void onSuccess(JSONObject response, HashMap<String, String> authData) {
+                sensorsListResult[0] = response;
+                if (--pendingRequests[0] == 0) {
+                    onRequestsComplete.run();
+                }
+            }
+            @Override
+            public void onError(ANError error) {
+                if (--pendingRequests[0] == 0) {
+                    onRequestsComplete.run();
+                }
+            }
+        });
 
+        DevicesAPI devicesAPI = new DevicesAPI();
+        devicesAPI.getDeviceInfoGeneral(deviceId, context, new OnAPITaskComplete() {
+            @Override
+            public void onSuccess(JSONObject result, HashMap<String, String> authData) {
+                deviceInfoResult[0] = result;
+                if (--pendingRequests[0] == 0) {
+                    onRequestsComplete.run();
+                }
+            }
+            @Override
+            public void onError(ANError error) {
+                if (--pendingRequests[0] == 0) {
+                    onRequestsComplete.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * "sensorsList" and "deviceInfo" are null if the corresponding request failed, in which case the
+     * values they would update(temperature, mode/setpoint) are kept as they are.
+     */
+    void applyThermostatData(Context context, int widgetId, MyDBHandler db, JSONObject sensorsList, JSONObject deviceInfo) {
         DeviceInfo widgetInfo = db.findWidgetInfoDevice(widgetId);
+        if (widgetInfo == null) {
+            return;
+        }
         int clientDeviceId = widgetInfo.getClientDeviceid();
         int clientId = widgetInfo.getClientId();
         String methReq = widgetInfo.getMethodRequested();
-        final String state = widgetInfo.getState();
+        String state = widgetInfo.getState();
         String stateValue = widgetInfo.getDeviceStateValue();
         String secStateValue = widgetInfo.getSecondaryStateValue();
 
-        SensorsAPI sensorsAPI = new SensorsAPI();
-        String params = "/sensors/list?includeValues=1&includeScale=1";
-
-        sensorsAPI.getSensorsList(params, context, "SensorsApi", new OnAPITaskComplete() {
-            @Override
-            public void onSuccess(final JSONObject response, HashMap<String, String> authData) {
-                DevicesAPI devicessAPI = new DevicesAPI();
-                devicessAPI.getDeviceInfoGeneral(deviceId, context, new OnAPITaskComplete() {
-
-                    @Override
-                    public void onSuccess(JSONObject result, HashMap<String, String> _authData) {
-                        try {
-
-                            String state2 = state, stateValue2 = stateValue, secStateValue2 = secStateValue;
-
-                            JSONObject sensorData = new JSONObject(response.toString());
-                            JSONArray JsonsensorList = sensorData.getJSONArray("sensor");
-
-                            DevicesUtilities deviceUtils = new DevicesUtilities();
-                            ArrayList<Map> modes = deviceUtils.getKnownModesThermostat(context);
-
-                            if (JsonsensorList != null) {
-
-                                try {
-                                    JSONArray stateValues = result.getJSONArray("statevalues");
-                                    if (stateValues != null) {
-                                        for (int ii = 0; ii < stateValues.length(); ii++) {
-                                            try {
-                                                JSONObject stateValuesObj = stateValues.getJSONObject(ii);
-                                                String stateC = stateValuesObj.getString("state");
-
-                                                if (stateC.equalsIgnoreCase("2048")) {
-                                                    JSONObject valuesObj = stateValuesObj.getJSONObject("value");
-                                                    JSONObject setpointObj = valuesObj.getJSONObject("setpoint");
-                                                    String mode = valuesObj.getString("mode");
-
-                                                    for (int j = 0; j < modes.size(); j++) {
-                                                        Map m = modes.get(j);
-                                                        if (setpointObj != null && setpointObj.length() == 1 && mode == null) {
-                                                            Iterator<String> setpointKeys = setpointObj.keys();
-                                                            String setpointKey = setpointKeys.next();
-                                                            if (setpointKey.equalsIgnoreCase(m.get("mode").toString())) {
-                                                                state2 = m.get("id").toString();
-                                                                secStateValue2 = setpointObj.optString(setpointKey);
-                                                            }
-                                                        } else {
-                                                            if (mode.equalsIgnoreCase(m.get("mode").toString())) {
-                                                                state2 = m.get("id").toString();
-                                                                secStateValue2 = setpointObj.optString(stateValuesObj.getJSONObject("value").getString("mode"));
-                                                            }
-                                                        }
-                                                    }
-                                                }
-                                            } catch (Exception e) {
-
-                                            }
-                                        }
-                                    }
-                                } catch(Exception e) {
-
-                                }
-
-                                for (int ii = 0; ii < JsonsensorList.length(); ii++) {
-                                    try {
-                                        JSONObject currObject = JsonsensorList.getJSONObject(ii);
-                                        Integer sensorId = currObject.getInt("sensorId");
-                                        if (clientDeviceId == sensorId && clientId == currObject.getInt("client")) {
-                                            JSONArray SensorData = currObject.getJSONArray("data");
-                                            for (int j = 0; j < SensorData.length(); j++) {
-                                                JSONObject currData = SensorData.getJSONObject(j);
-
-                                                String nameScale = currData.optString("name");
-                                                Integer scale = currData.optInt("scale");
-                                                String value = currData.optString("value");
-
-                                                if (nameScale.equalsIgnoreCase("temp") && scale == 0) {
-                                                    stateValue2 = value;
-                                                }
-                                            }
-                                        }
+        if (deviceInfo != null) {
+            DevicesUtilities deviceUtils = new DevicesUtilities();
+            ArrayList<Map> modes = deviceUtils.getKnownModesThermostat(context);
+            try {
+                JSONArray stateValues = deviceInfo.getJSONArray("statevalues");
+                for (int ii = 0; ii < stateValues.length(); ii++) {
+                    try {
+                        JSONObject stateValuesObj = stateValues.getJSONObject(ii);
+                        String stateC = stateValuesObj.getString("state");
+
+                        if (stateC.equalsIgnoreCase("2048")) {
+                            JSONObject valuesObj = stateValuesObj.getJSONObject("value");
+                            JSONObject setpointObj = valuesObj.getJSONObject("setpoint");
+                            String mode = valuesObj.getString("mode");
+
+                            for (int j = 0; j < modes.size(); j++) {
+                                Map m = modes.get(j);
+                                if (setpointObj != null && setpointObj.length() == 1 && mode == null) {
+                                    Iterator<String> setpointKeys = setpointObj.keys();
+                                    String setpointKey = setpointKeys.next();
+                                    if (setpointKey.equalsIgnoreCase(m.get("mode").toString())) {
+                                        state = m.get("id").toString();
+                                        secStateValue = setpointObj.optString(setpointKey);
                                     }
-                                    catch (Exception e) {
-                                        db.updateDeviceInfo(methReq, state, stateValue, 0, secStateValue2, widgetId, null, null);
-                                        AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-                                        updateAppWidget(context, widgetManager, widgetId, new HashMap());
+                                } else {
+                                    if (mode.equalsIgnoreCase(m.get("mode").toString())) {
+                                        state = m.get("id").toString();
+                                        secStateValue = setpointObj.optString(mode);
                                     }
                                 }
-
-                                db.updateDeviceInfo(methReq, state2, stateValue2, 0, secStateValue2, widgetId, null, null);
-                                AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-                                updateAppWidget(context, widgetManager, widgetId, new HashMap());
-                            } else {
-                                db.updateDeviceInfo(methReq, state, stateValue, 0, secStateValue2, widgetId, null, null);
-                                AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-                                updateAppWidget(context, widgetManager, widgetId, new HashMap());
                             }
-                        } catch (JSONException e) {
-                            db.updateDeviceInfo(methReq, state, stateValue, 0, secStateValue, widgetId, null, null);
-                            AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-                            updateAppWidget(context, widgetManager, widgetId, new HashMap());
-
-                            e.printStackTrace();
                         }
-                    }
+                    } catch (Exception e) {
 
-                    @Override
-                    public void onError(ANError result) {
-                        db.updateDeviceInfo(methReq, state, stateValue, 0, secStateValue, widgetId, null, null);
-                        AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-                        updateAppWidget(context, widgetManager, widgetId, new HashMap());
                     }
-                });
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
             }
-            @Override
-            public void onError(ANError error) {
-                db.updateDeviceInfo(methReq, state, stateValue, 0, secStateValue, widgetId, null, null);
-                AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-                updateAppWidget(context, widgetManager, widgetId, new HashMap());
+        }
+
+        if (sensorsList != null && sensorsList.optJSONArray("sensor") != null) {
+            try {
+                JSONObject currObject = SensorsListCache.getInstance().findSensor(clientId, clientDeviceId);
+                if (currObject != null) {
+                    JSONArray SensorData = currObject.getJSONArray("data");
+                    for (int j = 0; j < SensorData.length(); j++) {
+                        JSONObject currData = SensorData.getJSONObject(j);
+
+                        String nameScale = currData.optString("name");
+                        Integer scale = currData.optInt("scale");
+                        String value = currData.optString("value");
+
+                        if (nameScale.equalsIgnoreCase("temp") && scale == 0) {
+                            stateValue = value;
+                        }
+                    }
+                }
+            } catch (JSONException e) {
+                e.printStackTrace();
             }
-        });
+        }
+
+        db.updateDeviceInfo(methReq, state, stateValue, 0, secStateValue, widgetId, null, null);
+        AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
+        updateAppWidget(context, widgetManager, widgetId, new HashMap());
     }
 }
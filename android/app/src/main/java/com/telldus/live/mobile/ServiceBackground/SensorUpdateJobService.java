@@ -0,0 +1,54 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.ServiceBackground;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+
+import com.telldus.live.mobile.Utility.SensorUpdateAlarmManager;
+
+/**
+ * Runs the periodic jobs scheduled by SensorUpdateAlarmManager, one per update interval bucket.
+ */
+public class SensorUpdateJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        int bucketInterval = params.getExtras().getInt(SensorUpdateAlarmManager.EXTRA_BUCKET_INTERVAL, -1);
+        if (bucketInterval == -1) {
+            return false;
+        }
+
+        SensorUpdateAlarmManager sensorUpdateAlarmManager = new SensorUpdateAlarmManager(getApplicationContext());
+        sensorUpdateAlarmManager.onBucketAlarm(bucketInterval, new Runnable() {
+            @Override
+            public void run() {
+                jobFinished(params, false);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Next period will try again.
+        return false;
+    }
+}
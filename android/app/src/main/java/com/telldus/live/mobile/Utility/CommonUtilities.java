@@ -52,31 +52,53 @@ import static com.telldus.live.mobile.Utility.Constants.BASE_ICON_SIZE_FACTOR;
 
 public class CommonUtilities  {
 
+    // Paint is not thread safe, each rendering thread gets its own and only color/size change between icons.
+    private static final ThreadLocal<Paint> iconPaint = new ThreadLocal<Paint>() {
+        @Override
+        protected Paint initialValue() {
+            Paint paint = new Paint();
+            paint.setAntiAlias(true);
+            paint.setSubpixelText(true);
+            paint.setStyle(Paint.Style.FILL);
+            paint.setTextAlign(Paint.Align.CENTER);
+            return paint;
+        }
+    };
+
     public static Bitmap buildTelldusIcon(String icon, int color, int width, int height, int fontSize, Context context) {
+        String key = "icon:" + icon + ":" + color + ":" + width + ":" + height + ":" + fontSize;
+        Bitmap cached = WidgetBitmapCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
         Bitmap myBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         Canvas myCanvas = new Canvas(myBitmap);
-        Paint paint = new Paint();
+        Paint paint = iconPaint.get();
 
-        Typeface iconFont = Typeface.createFromAsset(context.getAssets(), "fonts/telldusicons.ttf");
+        Typeface iconFont = TypefaceCache.get(context, TypefaceCache.TELLDUS_ICONS);
 
-        paint.setAntiAlias(true);
-        paint.setSubpixelText(true);
         paint.setTypeface(iconFont);
-        paint.setStyle(Paint.Style.FILL);
         paint.setColor(color);
         paint.setTextSize(fontSize);
-        paint.setTextAlign(Paint.Align.CENTER);
 
         int xPos = (myCanvas.getWidth() / 2);
         int yPos = (int) ((myCanvas.getHeight() / 2) - ((paint.descent() + paint.ascent()) / 2)) ;
         myCanvas.drawText(icon, xPos, yPos, paint);
 
+        WidgetBitmapCache.put(key, myBitmap);
         return myBitmap;
     }
 
     public static Bitmap buildBitmapImageViewBG(int colorBG, int width, int height, int left, int borderRadi, Context context) {
-        Bitmap myBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         DisplayMetrics dm = context.getResources().getDisplayMetrics();
+        String key = "bg:" + colorBG + ":" + width + ":" + height + ":" + left + ":" + borderRadi + ":" + dm.densityDpi;
+        Bitmap cached = WidgetBitmapCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Bitmap myBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         myBitmap.setDensity(dm.densityDpi);
         Canvas myCanvas = new Canvas(myBitmap);
 
@@ -89,10 +111,17 @@ public class CommonUtilities  {
         myCanvas.drawRoundRect(rectF, borderRadi, borderRadi, paintBG);
         myCanvas.drawBitmap(myBitmap, 0, 0, paintBG);
 
+        WidgetBitmapCache.put(key, myBitmap);
         return myBitmap;
     }
 
     public static Bitmap getCircularBitmap(int size, int color) {
+        String key = "circle:" + size + ":" + color;
+        Bitmap cached = WidgetBitmapCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
         Bitmap dstBitmap = Bitmap.createBitmap(
                 size, // Width
                 size, // Height
@@ -109,9 +138,22 @@ public class CommonUtilities  {
 
         canvas.drawBitmap(dstBitmap, 0, 0, paint);
 
+        WidgetBitmapCache.put(key, dstBitmap);
         return dstBitmap;
     }
 
+    public static Bitmap drawableToBitmap(int drawableId, int width, int height, Context context) {
+        String key = "drawable:" + drawableId + ":" + width + ":" + height;
+        Bitmap cached = WidgetBitmapCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Bitmap bitmap = drawableToBitmap(context.getDrawable(drawableId), width, height);
+        WidgetBitmapCache.put(key, bitmap);
+        return bitmap;
+    }
+
     public static Bitmap drawableToBitmap (Drawable drawable, int width, int height) {
         Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
 
@@ -395,6 +437,10 @@ public class CommonUtilities  {
         return ((supportedMethods.get(methodName) != null) && supportedMethods.get(methodName));
     }
 
+    public static boolean hasMethod(Integer methodsAggregate, int method) {
+        return SupportedMethods.has(methodsAggregate, method);
+    }
+
     public static void hideAllFlashIndicators(RemoteViews views) {
         Integer[] flash_indicators = new Integer[]{
                 R.id.flashing_indicator_on,
@@ -23,18 +23,20 @@ import android.content.Context;
 import android.graphics.Color;
 import android.util.Log;
 
+import com.telldus.live.mobile.Database.MyDBHandler;
+import com.telldus.live.mobile.Model.DeviceInfo;
 import com.telldus.live.mobile.R;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class DevicesUtilities {
 
-    public Map<Integer, String> methods = new HashMap<Integer, String>() {{
+    public static final Map<Integer, String> methods = new HashMap<Integer, String>() {{
         put(1, "TURNON");
         put(2, "TURNOFF");
         put(4, "BELL");
@@ -49,43 +51,30 @@ public class DevicesUtilities {
         put(2048, "THERMOSTAT");
     }};
 
-    public Integer getBiggestPower(Integer num) {
-        int pow = (int) Math.floor(Math.log(num) / Math.log(2));
-        return pow;
-    }
-
-    public List<Integer> getParts(Integer num,List<Integer> memo) {
-        Integer biggestPower = getBiggestPower(num);
-        Double biggestPartD = Math.pow(2, biggestPower);
-        Integer biggestPart = biggestPartD.intValue();
-        Integer remainder = num - biggestPart;
-
-        List<Integer> newMemo = memo;
-        newMemo.add( biggestPart);
+    private static final ConcurrentHashMap<String, String> deviceIcons = new ConcurrentHashMap<String, String>();
+    private static final ConcurrentHashMap<String, Map<String, String>> actionIcons = new ConcurrentHashMap<String, Map<String, String>>();
 
-        if (remainder < 1) {
-            return newMemo;
-        }
-        return getParts(remainder, newMemo);
+    /**
+     * Method name(Ex: "TURNON") -> true for each method in the aggregate, see SupportedMethods.
+     * The map is shared between callers, do not modify it.
+     */
+    public Map<String, Boolean> getSupportedMethods(Integer methodsAggregate) {
+        return SupportedMethods.of(methodsAggregate).asMap();
     }
 
-    public Map<String, Boolean> getSupportedMethods(Integer methodsAggregate) {
-        Map<String, Boolean> methodHashmap = new HashMap<String, Boolean>();
-        List<Integer> memo = new ArrayList<Integer>();
-        List<Integer> methodNumbers = getParts(methodsAggregate, memo);
-
-        Iterator<Integer> itr = methodNumbers.iterator();
-        while (itr.hasNext()) {
-            Integer methodNumber = itr.next();
-            String item = methods.get(methodNumber);
-            if (item != null) {
-                methodHashmap.put(item, true);
-            }
+    /**
+     * Icon of the device type, resolved once per type.
+     */
+    public String getDeviceIcons(String deviceType) {
+        String icon = deviceIcons.get(deviceType);
+        if (icon == null) {
+            icon = resolveDeviceIcon(deviceType);
+            deviceIcons.put(deviceType, icon);
         }
-        return methodHashmap;
+        return icon;
     }
 
-    public String getDeviceIcons(String deviceType) {
+    private static String resolveDeviceIcon(String deviceType) {
         switch (deviceType) {
             case "0000001-0001-1000-2005-ACCA54000000":// ToDo: remove support for length "7" once backend is ready
             case "00000001-0001-1000-2005-ACCA54000000":
@@ -153,6 +142,56 @@ public class DevicesUtilities {
     }
 
     public Map<String, String> getDeviceActionIcon(String deviceType, String state, Map<String, Boolean> supportedMethods) {
+        int methods = 0;
+        if (CommonUtilities.hasMethod(supportedMethods, "TURNON")) {
+            methods |= SupportedMethods.TURNON;
+        }
+        if (CommonUtilities.hasMethod(supportedMethods, "TURNOFF")) {
+            methods |= SupportedMethods.TURNOFF;
+        }
+        return getDeviceActionIcon(deviceType, state, methods);
+    }
+
+    /**
+     * Method name(Ex: "TURNON") -> icon of the action buttons. Only the device type, whether the state is
+     * "off"(2) and the on/off methods decide the icons, results are shared per combination of those and
+     * must not be modified.
+     */
+    public Map<String, String> getDeviceActionIcon(String deviceType, String state, Integer methodsAggregate) {
+        boolean isOff = state != null && state.equals("2");
+        int methods = methodsAggregate == null ? 0 : methodsAggregate & (SupportedMethods.TURNON | SupportedMethods.TURNOFF);
+        String key = deviceType + ":" + isOff + ":" + methods;
+
+        Map<String, String> actionsIconSet = actionIcons.get(key);
+        if (actionsIconSet == null) {
+            actionsIconSet = Collections.unmodifiableMap(
+                    resolveDeviceActionIcon(deviceType, isOff ? "2" : null, SupportedMethods.of(methods).asMap()));
+            actionIcons.put(key, actionsIconSet);
+        }
+        return actionsIconSet;
+    }
+
+    /**
+     * Resolves the icons of the device types used by the device widgets ahead of their first render.
+     */
+    public static void warmUpIcons(Context context) {
+        DevicesUtilities deviceUtils = new DevicesUtilities();
+        MyDBHandler db = new MyDBHandler(context);
+        for (Integer widgetId : db.getAllWidgetDevices()) {
+            DeviceInfo widgetInfo = db.findWidgetInfoDevice(widgetId);
+            if (widgetInfo == null || widgetInfo.getDeviceType() == null) {
+                continue;
+            }
+            String deviceType = widgetInfo.getDeviceType();
+            deviceUtils.getDeviceIcons(deviceType);
+            for (int methods = 0; methods <= (SupportedMethods.TURNON | SupportedMethods.TURNOFF); methods++) {
+                deviceUtils.getDeviceActionIcon(deviceType, null, methods);
+                deviceUtils.getDeviceActionIcon(deviceType, "2", methods);
+            }
+        }
+    }
+
+    private static Map<String, String> resolveDeviceActionIcon(String deviceType, String state, Map<String, Boolean> supportedMethods) {
         Boolean TURNON = supportedMethods.get("TURNON");
         Boolean TURNOFF = supportedMethods.get("TURNOFF");
         Boolean BELL = supportedMethods.get("BELL");
@@ -19,6 +19,9 @@
 
 package com.telldus.live.mobile.Utility;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 public enum Sensor {
     NONE(""),
@@ -34,40 +37,39 @@ public enum Sensor {
     Wgust("wgust");
 
     private String sensor_type;
+
+    // Reverse lookups, values() copies the array on every call.
+    private static final Map<String, Sensor> bySensorType;
+    private static final Map<String, Sensor> byName;
+    static {
+        Map<String, Sensor> sensorTypes = new HashMap<String, Sensor>();
+        Map<String, Sensor> names = new HashMap<String, Sensor>();
+        for (Sensor sensor : values()) {
+            sensorTypes.put(sensor.sensor_type, sensor);
+            names.put(sensor.name(), sensor);
+        }
+        bySensorType = Collections.unmodifiableMap(sensorTypes);
+        byName = Collections.unmodifiableMap(names);
+    }
+
     private Sensor(final String sensor_type){
         this.sensor_type=sensor_type;
     }
 
 
     public static Sensor fromString(final String pLanguage) {
-        for (Sensor l : values()) {
-
-            if (l.toString().equals(pLanguage)) {
-                return l;
-            }
-        }
-        return null;
+        return bySensorType.get(pLanguage);
     }
 
 
     public static String getStringValueFromLang(final String lan) {
-        for (Sensor status : Sensor.values()) {
-            if (status.toString().equals(lan)) {
-                return status.name();
-            }
-        }
-        return null;
+        Sensor sensor = bySensorType.get(lan);
+        return sensor == null ? null : sensor.name();
     }
     public static String getValueLang(String lan)
     {
-        for(Sensor status:Sensor.values())
-        {
-            if(status.name().equals(lan))
-            {
-                return status.toString();
-            }
-        }
-        return null;
+        Sensor sensor = byName.get(lan);
+        return sensor == null ? null : sensor.toString();
     }
 
 
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.Utility;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.telldus.live.mobile.R;
+
+/**
+ * Sensor metadata from "assets/data/sensorConstants.json", read and indexed once per process.
+ *
+ * The registry is immutable once built, so it can be read from any thread without locking.
+ */
+public class SensorMetadataRegistry {
+    private static final String TAG = "SensorMetadataRegistry";
+    private static final String CONSTANTS_ASSET = "data/sensorConstants.json";
+
+    private static volatile SensorMetadataRegistry instance;
+
+    // Sensor name(lexical, Ex: "temp") -> sensor type(Ex: "TELLSTICK_TEMPERATURE")
+    private final Map<String, String> typesByName;
+    // Sensor type -> scale -> unit
+    private final Map<String, Map<String, String>> unitsByType;
+
+    /**
+     * Label and icon of a sensor name, the label is a string resource unless it is the same in all
+     * languages(Ex: "CO2").
+     */
+    public static class SensorKind {
+        public final int labelResId;
+        public final String label;
+        public final String icon;
+
+        SensorKind(int labelResId, String label, String icon) {
+            this.labelResId = labelResId;
+            this.label = label;
+            this.icon = icon;
+        }
+
+        public String getLabel(Context context) {
+            return label != null ? label : context.getResources().getString(labelResId);
+        }
+    }
+
+    private static final Map<String, SensorKind> KINDS;
+    static {
+        Map<String, SensorKind> kinds = new HashMap<String, SensorKind>();
+        kinds.put("humidity", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelHumidity, null, "humidity"));
+        kinds.put("temp", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelTemperature, null, "temperature"));
+        kinds.put("rrate", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelRainRate, null, "rain"));
+        kinds.put("rtot", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelRainTotal, null, "rain"));
+        kinds.put("wgust", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelWindGust, null, "wind"));
+        kinds.put("wavg", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelWindAverage, null, "wind"));
+        kinds.put("wdir", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelWindDirection, null, "wind"));
+        kinds.put("uv", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelUVIndex, null, "uv"));
+        kinds.put("watt", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_energy, null, "watt"));
+        kinds.put("lum", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelLuminance, null, "luminance"));
+        kinds.put("dewp", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelDewPoint, null, "humidity"));
+        kinds.put("barpress", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelBarometricPressure, null, "gauge"));
+        kinds.put("genmeter", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelGenericMeter, null, "sensor"));
+        kinds.put("co2", new SensorKind(0, "CO2", "co2"));
+        kinds.put("volume", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelVolume, null, "volume3d"));
+        kinds.put("loudness", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelLoudness, null, "speaker"));
+        kinds.put("particulatematter2.5", new SensorKind(0, "PM2.5", "pm25"));
+        kinds.put("co", new SensorKind(0, "CO", "co"));
+        kinds.put("weight", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelWeight, null, "weight"));
+        kinds.put("moisture", new SensorKind(R.string.reserved_widget_android_accessibilityLabel_sensors_labelMoisture, null, "humidity"));
+        KINDS = Collections.unmodifiableMap(kinds);
+    }
+
+    private SensorMetadataRegistry(Map<String, String> typesByName, Map<String, Map<String, String>> unitsByType) {
+        this.typesByName = typesByName;
+        this.unitsByType = unitsByType;
+    }
+
+    public static SensorMetadataRegistry getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SensorMetadataRegistry.class) {
+                if (instance == null) {
+                    instance = build(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Sensor type(Ex: "TELLSTICK_TEMPERATURE") of the sensor name, null if unknown.
+     */
+    public String getType(String name) {
+        return typesByName.get(name);
+    }
+
+    /**
+     * Sensor name -> sensor type, for all known sensors.
+     */
+    public Map<String, String> getTypes() {
+        return typesByName;
+    }
+
+    /**
+     * Scale -> unit of the sensor type, empty if the type is unknown.
+     */
+    public Map<String, String> getUnits(String sensorType) {
+        Map<String, String> units = sensorType == null ? null : unitsByType.get(sensorType);
+        return units == null ? Collections.<String, String>emptyMap() : units;
+    }
+
+    /**
+     * Unit of the sensor name and scale, empty if unknown.
+     */
+    public String getUnit(String name, String scale) {
+        String unit = getUnits(getType(name)).get(scale);
+        return unit == null ? "" : unit;
+    }
+
+    /**
+     * Label and icon of the sensor name, null if unknown.
+     */
+    public SensorKind getKind(String name) {
+        return KINDS.get(name);
+    }
+
+    static String readConstants(Context context) {
+        try {
+            InputStream is = context.getAssets().open(CONSTANTS_ASSET);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return out.toString("UTF-8");
+            } finally {
+                is.close();
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    private static SensorMetadataRegistry build(Context context) {
+        Map<String, String> typesByName = new HashMap<String, String>();
+        Map<String, Map<String, String>> unitsByType = new HashMap<String, Map<String, String>>();
+
+        String sensorConstants = readConstants(context);
+        if (sensorConstants != null) {
+            try {
+                JSONObject constantsJSON = new JSONObject(sensorConstants);
+                JSONObject sensorTypesDict = constantsJSON.getJSONObject("sensorTypesDict");
+                JSONObject unitTypes = constantsJSON.getJSONObject("unitTypes");
+
+                Iterator<String> iter = sensorTypesDict.keys();
+                while (iter.hasNext()) {
+                    String type = iter.next();
+                    JSONObject item = sensorTypesDict.optJSONObject(type);
+                    if (item == null) {
+                        continue;
+                    }
+                    String lexical = item.optString("lexical", null);
+                    if (lexical != null) {
+                        typesByName.put(lexical, type);
+                    }
+
+                    Map<String, String> units = new HashMap<String, String>();
+                    JSONArray sensorScales = item.optJSONArray("scale");
+                    if (sensorScales != null) {
+                        for (int i = 0; i < sensorScales.length(); i++) {
+                            JSONArray sensorScale = unitTypes.optJSONArray(sensorScales.optString(i));
+                            if (sensorScale != null) {
+                                units.put(sensorScale.getString(0), sensorScale.getString(1));
+                            }
+                        }
+                    }
+                    unitsByType.put(type, Collections.unmodifiableMap(units));
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to parse " + CONSTANTS_ASSET, e);
+            }
+        }
+
+        return new SensorMetadataRegistry(
+                Collections.unmodifiableMap(typesByName),
+                Collections.unmodifiableMap(unitsByType)
+        );
+    }
+}
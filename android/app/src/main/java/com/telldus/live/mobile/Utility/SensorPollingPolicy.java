@@ -0,0 +1,107 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.Utility;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Stretches the update interval of sensor widgets whose value does not change.
+ *
+ * Every time the sensor is polled and its value(or its "lastUpdated") has not moved, the interval is
+ * doubled, from the interval set by the user up to the longest interval the user can choose(60 minutes).
+ * As soon as the value changes, the widget goes back to the interval set by the user.
+ */
+public class SensorPollingPolicy {
+
+    private static final String PREF_NAME = "TelldusSensorPolling";
+    private static final long MAX_INTERVAL = 60 * 60000;
+    private static final int MAX_MULTIPLIER = 4;
+
+    private SharedPreferences pref;
+
+    public SensorPollingPolicy(Context context) {
+        pref = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Whether the widget should be polled now, given that it is checked every "updateInterval".
+     */
+    public boolean isDue(int widgetId, int updateInterval) {
+        long lastPolledAt = pref.getLong(widgetId + "_lastPolledAt", 0);
+        int multiplier = pref.getInt(widgetId + "_multiplier", 1);
+        long elapsed = System.currentTimeMillis() - lastPolledAt;
+        // Checks do not happen exactly on time, half an interval of tolerance avoids skipping one by a few seconds.
+        return elapsed >= ((long) updateInterval * multiplier) - (updateInterval / 2);
+    }
+
+    /**
+     * Records the value just fetched, "updateInterval" being the interval the widget is checked at.
+     */
+    public void onPolled(int widgetId, int updateInterval, String value, String lastUpdated) {
+        String previousValue = pref.getString(widgetId + "_value", null);
+        String previousLastUpdated = pref.getString(widgetId + "_lastUpdated", null);
+        int multiplier = pref.getInt(widgetId + "_multiplier", 1);
+
+        boolean isStale = lastUpdated == null || lastUpdated.equals(previousLastUpdated);
+        boolean hasChanged = previousValue == null || !isSameValue(previousValue, value);
+        if (hasChanged && !isStale) {
+            multiplier = 1;
+        } else {
+            int maxMultiplier = (int) Math.max(1, Math.min(MAX_MULTIPLIER, MAX_INTERVAL / Math.max(1, updateInterval)));
+            multiplier = Math.min(multiplier * 2, maxMultiplier);
+        }
+
+        pref.edit()
+                .putLong(widgetId + "_lastPolledAt", System.currentTimeMillis())
+                .putInt(widgetId + "_multiplier", multiplier)
+                .putString(widgetId + "_value", value)
+                .putString(widgetId + "_lastUpdated", lastUpdated)
+                .apply();
+    }
+
+    /**
+     * Back to the interval set by the user, Ex: when the user asks for an update.
+     */
+    public void reset(int widgetId) {
+        pref.edit().putInt(widgetId + "_multiplier", 1).apply();
+    }
+
+    public void forget(int widgetId) {
+        pref.edit()
+                .remove(widgetId + "_lastPolledAt")
+                .remove(widgetId + "_multiplier")
+                .remove(widgetId + "_value")
+                .remove(widgetId + "_lastUpdated")
+                .apply();
+    }
+
+    private boolean isSameValue(String a, String b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        try {
+            return Double.parseDouble(a) == Double.parseDouble(b);
+        } catch (NumberFormatException e) {
+            // Ex: wind direction.
+            return a.equals(b);
+        }
+    }
+}
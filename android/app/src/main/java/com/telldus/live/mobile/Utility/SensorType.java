@@ -19,7 +19,9 @@
 
 package com.telldus.live.mobile.Utility;
 
-import android.util.Log;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 public enum SensorType {
     temp("1"),
@@ -37,7 +39,20 @@ public enum SensorType {
      */
     private  String language;
 
-//    private static Map map = new HashMap();
+    // Reverse lookups, values() copies the array on every call.
+    private static final Map<String, SensorType> byLanguage;
+    private static final Map<String, SensorType> byName;
+    static {
+        Map<String, SensorType> languages = new HashMap<String, SensorType>();
+        Map<String, SensorType> names = new HashMap<String, SensorType>();
+        for (SensorType sensorType : values()) {
+            languages.put(sensorType.language, sensorType);
+            names.put(sensorType.name(), sensorType);
+        }
+        byLanguage = Collections.unmodifiableMap(languages);
+        byName = Collections.unmodifiableMap(names);
+    }
+
     /**
      * Enum constructor.
      *
@@ -48,48 +63,18 @@ public enum SensorType {
     }
 
     public static SensorType fromString(final String pLanguage) {
-        for (SensorType l : values()) {
-            Log.v("Sample",l.toString());
-            if (l.toString().equals(pLanguage)) {
-                return l;
-            }
-        }
-        return null;
+        return byLanguage.get(pLanguage);
     }
 
-
     public static String getStringValueFromLang(final String lan) {
-        for (SensorType status : SensorType.values()) {
-            if (status.toString().equals(lan)) {
-                return status.name();
-
-            }
-        }
-        return null;
-    }
-    public static String getValueLang(String lan)
-    {
-        for(SensorType status:SensorType.values())
-        {
-            if(status.name().equals(lan))
-            {
-                return status.toString();
-            }
-        }
-        return null;
-    }
-
-
-  /*  static {
-        for (Language legEnum : Language.values()) {
-            map.put(legEnum.language, legEnum);
-        }
+        SensorType sensorType = byLanguage.get(lan);
+        return sensorType == null ? null : sensorType.name();
     }
 
-    public static Language getLanguage(String legNo) {
-        return (Language) map.get(legNo);
+    public static String getValueLang(String lan) {
+        SensorType sensorType = byName.get(lan);
+        return sensorType == null ? null : sensorType.toString();
     }
-*/
 
     /**
      * Returns the String representation of this language.
@@ -21,53 +21,392 @@ package com.telldus.live.mobile.Utility;
 
 import android.app.AlarmManager;
 import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
 import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.PersistableBundle;
 import android.util.Log;
 
+import com.androidnetworking.error.ANError;
+
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONObject;
+
+import com.telldus.live.mobile.API.OnAPITaskComplete;
+import com.telldus.live.mobile.API.SensorsListCache;
+import com.telldus.live.mobile.BroadcastReceiver.SensorUpdateAlarmReceiver;
+import com.telldus.live.mobile.Database.MyDBHandler;
+import com.telldus.live.mobile.Database.PrefManager;
+import com.telldus.live.mobile.Model.DeviceInfo;
+import com.telldus.live.mobile.Model.SensorInfo;
 import com.telldus.live.mobile.NewSensorWidget;
+import com.telldus.live.mobile.NewThermostatWidget;
+import com.telldus.live.mobile.ServiceBackground.SensorUpdateJobService;
+import com.telldus.live.mobile.WidgetsUpdater;
 
+/**
+ * Schedules the periodic update of sensor and thermostat widgets.
+ *
+ * Widgets are grouped in buckets by their update interval, and each bucket is run by a single periodic job. When it
+ * runs, all the widgets in the bucket are updated together, from a single "/sensors/list" request.
+ *
+ * Jobs only run with a network connection, are batched by the system with other work and survive reboots. Buckets
+ * with an interval shorter than the platform minimum for periodic jobs fall back to an exact alarm.
+ */
 public class SensorUpdateAlarmManager {
 
-    private Context mContext;
+    public static final String EXTRA_BUCKET_INTERVAL = "bucketInterval";
+
+    private static final String PREF_NAME = "TelldusSensorUpdateAlarms";
+    private static final int BUCKET_GRANULARITY = 60000;
+    private static final String API_TAG = "SensorsUpdateBucket";
 
+    private static final int JOB_ID_BASE = 0x7E1D0000;
+    // JobInfo.getMinPeriodMillis(), not available below API 24.
+    private static final int MIN_JOB_INTERVAL = 15 * 60000;
+
+    // Widgets are scheduled from the main thread and from the widget render thread. Adding or removing a widget and
+    // then scheduling or cancelling its bucket must not interleave, else a bucket can be cancelled with a widget in it.
+    private static final Object bucketLock = new Object();
+
+    // Buckets with a pending job or alarm, guarded by bucketLock. Widgets check their bucket on every render, so the
+    // system is only asked once per process, and the set is kept up to date as buckets are scheduled and cancelled.
+    private static final Set<Integer> scheduledBuckets = new HashSet<Integer>();
+    private static boolean isScheduledBucketsLoaded = false;
+
+    private Context mContext;
+    private SharedPreferences scheduledWidgets;
 
     public SensorUpdateAlarmManager(Context context) {
         mContext = context;
+        scheduledWidgets = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
     }
 
     public void startAlarm(int widgetId, int updateInterval, Class instance) {
-        Calendar calendar = Calendar.getInstance();
-        calendar.add(Calendar.MILLISECOND, updateInterval);
+        int bucketInterval = getBucketInterval(updateInterval);
+        synchronized (bucketLock) {
+            scheduledWidgets.edit()
+                    .putString(String.valueOf(widgetId), bucketInterval + ":" + instance.getName())
+                    .apply();
+
+            if (!isBucketScheduled(bucketInterval)) {
+                scheduleBucket(bucketInterval);
+            }
+        }
+    }
+
+    public void stopAlarm(int widgetId, Class instance) {
+        String key = String.valueOf(widgetId);
+        synchronized (bucketLock) {
+            String scheduled = scheduledWidgets.getString(key, null);
+            if (scheduled == null) {
+                return;
+            }
+            scheduledWidgets.edit().remove(key).apply();
+
+            int bucketInterval = parseBucketInterval(scheduled);
+            if (getWidgetsInBucket(bucketInterval).isEmpty()) {
+                cancelBucket(bucketInterval);
+            }
+        }
+        new SensorPollingPolicy(mContext).forget(widgetId);
+    }
+
+    public boolean checkIfAlarmAlreadyRunning(int widgetId, Class instance) {
+        String scheduled = scheduledWidgets.getString(String.valueOf(widgetId), null);
+        if (scheduled == null) {
+            return false;
+        }
+        synchronized (bucketLock) {
+            return isBucketScheduled(parseBucketInterval(scheduled));
+        }
+    }
+
+    /**
+     * Schedules again all the widgets, after boot or app update. Periodic jobs are persisted, but exact alarms
+     * are not, and widgets scheduled by an older version of the app are not in the buckets yet.
+     */
+    public void restartAlarms() {
+        MyDBHandler db = new MyDBHandler(mContext);
+        AppWidgetManager widgetManager = AppWidgetManager.getInstance(mContext);
+        int widgetIds[] = widgetManager.getAppWidgetIds(new ComponentName(mContext, NewSensorWidget.class));
+        for (int widgetId : widgetIds) {
+            SensorInfo widgetInfo = db.findWidgetInfoSensor(widgetId);
+            if (widgetInfo != null) {
+                startAlarm(widgetId, widgetInfo.getUpdateInterval(), NewSensorWidget.class);
+            }
+        }
+        int widgetThermostatIds[] = widgetManager.getAppWidgetIds(new ComponentName(mContext, NewThermostatWidget.class));
+        for (int widgetId : widgetThermostatIds) {
+            DeviceInfo widgetInfoDevice = db.findWidgetInfoDevice(widgetId);
+            if (widgetInfoDevice != null) {
+                startAlarm(widgetId, widgetInfoDevice.getUpdateInterval(), NewThermostatWidget.class);
+            }
+        }
+    }
+
+    /**
+     * Called when the job or alarm of a bucket runs. Updates all the widgets in it, and calls "onComplete"
+     * once all of them have got their data, or their requests have failed.
+     */
+    public void onBucketAlarm(final int bucketInterval, final Runnable onComplete) {
+        Map<Integer, String> widgets;
+        synchronized (bucketLock) {
+            widgets = getWidgetsInBucket(bucketInterval);
+            if (widgets.isEmpty()) {
+                cancelBucket(bucketInterval);
+            } else if (!isJobBucket(bucketInterval)) {
+                scheduleBucket(bucketInterval);
+            }
+        }
+        if (widgets.isEmpty()) {
+            onComplete.run();
+            return;
+        }
+
+        final Context context = mContext;
+        PrefManager prefManager = new PrefManager(context);
+        if (prefManager.getAccessToken() == "") {
+            onComplete.run();
+            return;
+        }
+
+        final MyDBHandler db = new MyDBHandler(context);
+        final NewSensorWidget sensorWidget = new NewSensorWidget();
+        final NewThermostatWidget thermostatWidget = new NewThermostatWidget();
+        final WidgetsUpdater wUpdater = new WidgetsUpdater();
+        final SensorPollingPolicy pollingPolicy = new SensorPollingPolicy(context);
+
+        int pro = prefManager.getPro();
+        long now = new Date().getTime() / 1000;
+        Boolean isBasicUser = pro == -1 || pro < now;
+
+        final ArrayList<SensorInfo> sensorWidgets = new ArrayList<SensorInfo>();
+        ArrayList<DeviceInfo> thermostatWidgets = new ArrayList<DeviceInfo>();
+        for (Map.Entry<Integer, String> entry : widgets.entrySet()) {
+            int widgetId = entry.getKey();
+            String className = entry.getValue();
+
+            if (className.equals(NewSensorWidget.class.getName())) {
+                SensorInfo widgetInfo = db.findWidgetInfoSensor(widgetId);
+                if (widgetInfo == null) {
+                    stopAlarm(widgetId, NewSensorWidget.class);
+                    continue;
+                }
+                if (isBasicUser) {
+                    // Re-rendering shows the premium notice and stops the updates.
+                    wUpdater.updateUIWidgetSensor(widgetId, context, new HashMap());
+                    continue;
+                }
+                if (widgetInfo.getSensorId() != -1 && pollingPolicy.isDue(widgetId, bucketInterval)) {
+                    sensorWidgets.add(widgetInfo);
+                }
+            } else if (className.equals(NewThermostatWidget.class.getName())) {
+                DeviceInfo widgetInfo = db.findWidgetInfoDevice(widgetId);
+                if (widgetInfo == null) {
+                    stopAlarm(widgetId, NewThermostatWidget.class);
+                    continue;
+                }
+                if (isBasicUser) {
+                    wUpdater.updateUIWidgetDeviceThermo(widgetId, context, new HashMap());
+                    continue;
+                }
+                thermostatWidgets.add(widgetInfo);
+            }
+        }
+
+        if (sensorWidgets.isEmpty() && thermostatWidgets.isEmpty()) {
+            onComplete.run();
+            return;
+        }
+
+        // One for each thermostat widget, one for the sensors list, and one for each sensor widget that has to
+        // fall back to "/sensor/info".
+        final int[] pendingUpdates = {thermostatWidgets.size() + (sensorWidgets.isEmpty() ? 0 : 1)};
+        final Runnable onUpdateComplete = new Runnable() {
+            @Override
+            public void run() {
+                if (--pendingUpdates[0] == 0) {
+                    onComplete.run();
+                }
+            }
+        };
 
-        boolean alreadyRunning = checkIfAlarmAlreadyRunning(widgetId, instance);
-        Intent alarmIntent = new Intent(mContext, instance);
+        for (DeviceInfo widgetInfo : thermostatWidgets) {
+            // Shares the sensors list downloaded below.
+            thermostatWidget.autoUpdate(context, widgetInfo, db, onUpdateComplete);
+        }
+
+        if (sensorWidgets.isEmpty()) {
+            return;
+        }
+
+        // One request for all the sensor widgets in the bucket, also when several of them show the same sensor.
+        SensorsListCache.getInstance().getSensorsList(context, API_TAG, new OnAPITaskComplete() {
+            @Override
+            public void onSuccess(JSONObject response, HashMap<String, String> authData) {
+                for (SensorInfo widgetInfo : sensorWidgets) {
+                    int sensorId = widgetInfo.getSensorId();
+                    final int widgetId = widgetInfo.getWidgetId();
+                    JSONObject sensor = SensorsListCache.getInstance().findFreshSensorById(context, sensorId);
+                    if (sensor != null && sensor.optJSONArray("data") != null) {
+                        sensorWidget.updateSensorInfo(sensor, sensorId, widgetId, db, context);
+                        recordPoll(pollingPolicy, db, widgetId, bucketInterval);
+                    } else {
+                        // Not in the list, let "/sensor/info" tell if the sensor has been removed.
+                        pendingUpdates[0]++;
+                        sensorWidget.createSensorApi(sensorId, widgetId, db, context, new OnAPITaskComplete() {
+                            @Override
+                            public void onSuccess(JSONObject response, HashMap<String, String> authData) {
+                                recordPoll(pollingPolicy, db, widgetId, bucketInterval);
+                                onUpdateComplete.run();
+                            }
+                            @Override
+                            public void onError(ANError error) {
+                                onUpdateComplete.run();
+                            }
+                        });
+                    }
+                }
+                onUpdateComplete.run();
+            }
+
+            @Override
+            public void onError(ANError error) {
+                for (SensorInfo widgetInfo : sensorWidgets) {
+                    wUpdater.updateUIWidgetSensor(widgetInfo.getWidgetId(), context, new HashMap());
+                }
+                onUpdateComplete.run();
+            }
+        });
+    }
+
+    private void recordPoll(SensorPollingPolicy pollingPolicy, MyDBHandler db, int widgetId, int bucketInterval) {
+        SensorInfo updatedInfo = db.findWidgetInfoSensor(widgetId);
+        if (updatedInfo != null) {
+            pollingPolicy.onPolled(widgetId, bucketInterval, updatedInfo.getSensorValue(), updatedInfo.getSensorUpdate());
+        }
+    }
+
+    /**
+     * Intervals are rounded to the minute, so that widgets with nearly the same interval share an alarm.
+     */
+    private int getBucketInterval(int updateInterval) {
+        int minutes = Math.max(1, Math.round(updateInterval / (float) BUCKET_GRANULARITY));
+        return minutes * BUCKET_GRANULARITY;
+    }
+
+    private int parseBucketInterval(String scheduled) {
+        return Integer.parseInt(scheduled.substring(0, scheduled.indexOf(":")), 10);
+    }
+
+    private Map<Integer, String> getWidgetsInBucket(int bucketInterval) {
+        Map<Integer, String> widgets = new HashMap<Integer, String>();
+        for (Map.Entry<String, ?> entry : scheduledWidgets.getAll().entrySet()) {
+            String scheduled = String.valueOf(entry.getValue());
+            if (parseBucketInterval(scheduled) == bucketInterval) {
+                widgets.put(Integer.parseInt(entry.getKey(), 10), scheduled.substring(scheduled.indexOf(":") + 1));
+            }
+        }
+        return widgets;
+    }
+
+    private boolean isJobBucket(int bucketInterval) {
+        return bucketInterval >= MIN_JOB_INTERVAL;
+    }
+
+    private Intent getBucketIntent(int bucketInterval) {
+        Intent alarmIntent = new Intent(mContext, SensorUpdateAlarmReceiver.class);
         alarmIntent.setAction(NewSensorWidget.ACTION_AUTO_UPDATE);
-        alarmIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, widgetId);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, widgetId, alarmIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+        alarmIntent.putExtra(EXTRA_BUCKET_INTERVAL, bucketInterval);
+        return alarmIntent;
+    }
 
+    private boolean isBucketScheduled(int bucketInterval) {
+        loadScheduledBuckets();
+        return scheduledBuckets.contains(bucketInterval);
+    }
+
+    /**
+     * Fills scheduledBuckets from the jobs and alarms left by an earlier process, the first time it is needed.
+     */
+    private void loadScheduledBuckets() {
+        if (isScheduledBucketsLoaded) {
+            return;
+        }
+        JobScheduler jobScheduler = (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo jobInfo : jobScheduler.getAllPendingJobs()) {
+            int bucketInterval = jobInfo.getId() - JOB_ID_BASE;
+            if (isJobBucket(bucketInterval) && bucketInterval % BUCKET_GRANULARITY == 0) {
+                scheduledBuckets.add(bucketInterval);
+            }
+        }
+        for (Object scheduled : scheduledWidgets.getAll().values()) {
+            int bucketInterval = parseBucketInterval(String.valueOf(scheduled));
+            if (!isJobBucket(bucketInterval) && !scheduledBuckets.contains(bucketInterval)
+                    && PendingIntent.getBroadcast(mContext, bucketInterval, getBucketIntent(bucketInterval), PendingIntent.FLAG_NO_CREATE) != null) {
+                scheduledBuckets.add(bucketInterval);
+            }
+        }
+        isScheduledBucketsLoaded = true;
+    }
+
+    private void scheduleBucket(int bucketInterval) {
+        scheduledBuckets.add(bucketInterval);
+        if (isJobBucket(bucketInterval)) {
+            PersistableBundle extras = new PersistableBundle();
+            extras.putInt(EXTRA_BUCKET_INTERVAL, bucketInterval);
+
+            JobInfo.Builder builder = new JobInfo.Builder(JOB_ID_BASE + bucketInterval, new ComponentName(mContext, SensorUpdateJobService.class))
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                    .setPersisted(true)
+                    .setExtras(extras);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                // Let the system run it together with other work, anywhere in the last quarter of the interval.
+                builder.setPeriodic(bucketInterval, bucketInterval / 4);
+            } else {
+                builder.setPeriodic(bucketInterval);
+            }
+
+            JobScheduler jobScheduler = (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            jobScheduler.schedule(builder.build());
+            return;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.MILLISECOND, bucketInterval);
+
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, bucketInterval, getBucketIntent(bucketInterval), PendingIntent.FLAG_UPDATE_CURRENT);
         AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
         alarmManager.setExact(AlarmManager.RTC, calendar.getTimeInMillis(), pendingIntent);
     }
 
-    public void stopAlarm(int widgetId, Class instance) {
-
-        Intent alarmIntent = new Intent(mContext, instance);
-        alarmIntent.setAction(NewSensorWidget.ACTION_AUTO_UPDATE);
-        alarmIntent.putExtra(AppWidgetManager.EXTRA_APPWIDGET_ID, widgetId);
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, widgetId, alarmIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+    private void cancelBucket(int bucketInterval) {
+        scheduledBuckets.remove(bucketInterval);
+        if (isJobBucket(bucketInterval)) {
+            JobScheduler jobScheduler = (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            jobScheduler.cancel(JOB_ID_BASE + bucketInterval);
+            return;
+        }
 
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, bucketInterval, getBucketIntent(bucketInterval), PendingIntent.FLAG_NO_CREATE);
+        if (pendingIntent == null) {
+            return;
+        }
         AlarmManager alarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
         alarmManager.cancel(pendingIntent);
         pendingIntent.cancel();
     }
-
-    public boolean checkIfAlarmAlreadyRunning(int widgetId, Class instance) {
-        Intent alarmIntent = new Intent(mContext, instance);
-        alarmIntent.setAction(NewSensorWidget.ACTION_AUTO_UPDATE);
-        boolean isRunning = (PendingIntent.getBroadcast(mContext, widgetId, alarmIntent, PendingIntent.FLAG_NO_CREATE) != null);
-        return isRunning;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.Utility;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Methods supported by a device, decoded from the methods aggregate(sum of the method bits) returned by
+ * the API.
+ *
+ * Instances are immutable and shared per aggregate value, see of.
+ */
+public final class SupportedMethods {
+    public static final int TURNON = 1;
+    public static final int TURNOFF = 2;
+    public static final int BELL = 4;
+    public static final int TOGGLE = 8;
+    public static final int DIM = 16;
+    public static final int LEARN = 32;
+    public static final int EXECUTE = 64;
+    public static final int UP = 128;
+    public static final int DOWN = 256;
+    public static final int STOP = 512;
+    public static final int RGB = 1024;
+    public static final int THERMOSTAT = 2048;
+
+    private static final int[] METHODS = new int[]{
+            TURNON, TURNOFF, BELL, TOGGLE, DIM, LEARN, EXECUTE, UP, DOWN, STOP, RGB, THERMOSTAT,
+    };
+    private static final String[] NAMES = new String[]{
+            "TURNON", "TURNOFF", "BELL", "TOGGLE", "DIM", "LEARN", "EXECUTE", "UP", "DOWN", "STOP", "RGB", "THERMOSTAT",
+    };
+    private static final int KNOWN_METHODS = 4095;
+
+    private static final ConcurrentHashMap<Integer, SupportedMethods> decoded = new ConcurrentHashMap<Integer, SupportedMethods>();
+
+    private final int flags;
+    private final Map<String, Boolean> asMap;
+
+    private SupportedMethods(int flags) {
+        this.flags = flags;
+
+        Map<String, Boolean> map = new HashMap<String, Boolean>();
+        for (int i = 0; i < METHODS.length; i++) {
+            if ((flags & METHODS[i]) != 0) {
+                map.put(NAMES[i], true);
+            }
+        }
+        this.asMap = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Supported methods of the aggregate, methods the app does not know about are ignored.
+     */
+    public static SupportedMethods of(Integer methodsAggregate) {
+        int flags = methodsAggregate == null ? 0 : methodsAggregate & KNOWN_METHODS;
+        SupportedMethods supportedMethods = decoded.get(flags);
+        if (supportedMethods == null) {
+            supportedMethods = new SupportedMethods(flags);
+            SupportedMethods existing = decoded.putIfAbsent(flags, supportedMethods);
+            if (existing != null) {
+                supportedMethods = existing;
+            }
+        }
+        return supportedMethods;
+    }
+
+    public static boolean has(Integer methodsAggregate, int method) {
+        return methodsAggregate != null && (methodsAggregate & method) != 0;
+    }
+
+    public boolean has(int method) {
+        return (flags & method) != 0;
+    }
+
+    /**
+     * Number of supported methods.
+     */
+    public int size() {
+        return Integer.bitCount(flags);
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Method name(Ex: "TURNON") -> true for each supported method. The map is shared, do not modify it.
+     */
+    public Map<String, Boolean> asMap() {
+        return asMap;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.Utility;
+
+import android.content.Context;
+import android.graphics.Typeface;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide registry of the fonts bundled in assets. Typeface.createFromAsset reads and parses the
+ * font file each time it is called, here each font is loaded once and then shared.
+ */
+public class TypefaceCache {
+    public static final String TELLDUS_ICONS = "fonts/telldusicons.ttf";
+    public static final String ROBOTO_LIGHT = "fonts/RobotoLight.ttf";
+    public static final String ROBOTO_REGULAR = "fonts/Roboto-Regular.ttf";
+
+    private static final ConcurrentHashMap<String, Typeface> typefaces = new ConcurrentHashMap<String, Typeface>();
+
+    public static Typeface get(Context context, String assetPath) {
+        Typeface typeface = typefaces.get(assetPath);
+        if (typeface == null) {
+            // Two threads might both load it the first time, either result is fine.
+            typeface = Typeface.createFromAsset(context.getApplicationContext().getAssets(), assetPath);
+            typefaces.put(assetPath, typeface);
+        }
+        return typeface;
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.Utility;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Process wide LRU cache of the bitmaps drawn for widgets(icons, backgrounds), shared by all widget providers.
+ *
+ * Widgets keep asking for the same few icons in the same colors and sizes, so these are drawn once and reused.
+ * Bitmaps handed out from here are shared, and must not be drawn on.
+ */
+public class WidgetBitmapCache {
+    // In bytes.
+    private static final int MAX_SIZE = (int) Math.min(Runtime.getRuntime().maxMemory() / 16, 4 * 1024 * 1024);
+
+    private static final LruCache<String, Bitmap> cache = new LruCache<String, Bitmap>(MAX_SIZE) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    };
+
+    public static Bitmap get(String key) {
+        return cache.get(key);
+    }
+
+    public static void put(String key, Bitmap bitmap) {
+        cache.put(key, bitmap);
+    }
+
+    public static void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            cache.trimToSize(MAX_SIZE / 2);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.Utility;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Date and time formatters used for the "last updated" labels of the widgets, created once per
+ * (locale, timezone) instead of on every render.
+ *
+ * Cleared on locale and timezone change, see MainApplication.
+ */
+public class WidgetDateFormats {
+
+    private static final ConcurrentHashMap<String, Formats> formats = new ConcurrentHashMap<String, Formats>();
+
+    private static class Formats {
+        // DateFormat is not thread safe, both are used while holding the lock on this object.
+        final DateFormat date;
+        final DateFormat time;
+
+        Formats(Locale locale, TimeZone timeZone) {
+            date = formatDate(locale);
+            date.setTimeZone(timeZone);
+            time = DateFormat.getTimeInstance(DateFormat.SHORT, locale);
+            time.setTimeZone(timeZone);
+        }
+    }
+
+    /**
+     * Medium date format of the locale, without the year.
+     */
+    public static DateFormat formatDate(Locale locale) {
+        SimpleDateFormat formattedDate = (SimpleDateFormat) DateFormat.getDateInstance(DateFormat.MEDIUM, locale);
+        formattedDate.applyPattern(formattedDate.toPattern().replaceAll(
+                "([^\\p{Alpha}']|('[\\p{Alpha}]+'))*y+([^\\p{Alpha}']|('[\\p{Alpha}]+'))*",
+                ""));
+        return formattedDate;
+    }
+
+    /**
+     * Date(without the year) of the time, in the timezone(Ex: "Europe/Stockholm").
+     */
+    public static String formatDate(Date date, Locale locale, String timezone) {
+        Formats f = getFormats(locale, timezone);
+        synchronized (f) {
+            return f.date.format(date);
+        }
+    }
+
+    /**
+     * Short time of the time, in the timezone(Ex: "Europe/Stockholm").
+     */
+    public static String formatTime(Date date, Locale locale, String timezone) {
+        Formats f = getFormats(locale, timezone);
+        synchronized (f) {
+            return f.time.format(date);
+        }
+    }
+
+    public static void clear() {
+        formats.clear();
+    }
+
+    private static Formats getFormats(Locale locale, String timezone) {
+        String key = locale.toString() + "|" + timezone;
+        Formats f = formats.get(key);
+        if (f == null) {
+            f = new Formats(locale, TimeZone.getTimeZone(timezone));
+            Formats existing = formats.putIfAbsent(key, f);
+            if (existing != null) {
+                f = existing;
+            }
+        }
+        return f;
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile.Utility;
+
+import android.appwidget.AppWidgetManager;
+import android.content.Context;
+import android.os.Bundle;
+import android.widget.RemoteViews;
+
+import com.telldus.live.mobile.Database.PrefManager;
+import com.telldus.live.mobile.Model.DeviceInfo;
+import com.telldus.live.mobile.Model.SensorInfo;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Remembers what each widget was last rendered from, so that a render with the same inputs is not sent
+ * to the launcher again(Ex: the normalizeUI pass when the screen turns on, with nothing changed).
+ *
+ * A fingerprint is built from everything a render depends on: the widget info row, the widget size, the
+ * account, premium status, text size setting, locale and the extra arguments of the render.
+ * Fingerprints only live in memory, so the first render after the process starts is always sent.
+ */
+public class WidgetRenderState {
+    private static final Map<Integer, String> layoutFingerprints = new HashMap<Integer, String>();
+    private static final Map<Integer, String> contentFingerprints = new HashMap<Integer, String>();
+
+    public static String fingerprint(Context context, AppWidgetManager appWidgetManager, int appWidgetId, Map extraArgs, Object... parts) {
+        StringBuilder fingerprint = new StringBuilder();
+        for (Object part : parts) {
+            fingerprint.append(part).append('|');
+        }
+
+        Bundle options = appWidgetManager.getAppWidgetOptions(appWidgetId);
+        fingerprint.append(options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH)).append('|')
+                .append(options.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_HEIGHT)).append('|')
+                .append(options.getInt(AppWidgetManager.OPTION_APPWIDGET_MAX_WIDTH)).append('|')
+                .append(options.getInt(AppWidgetManager.OPTION_APPWIDGET_MAX_HEIGHT)).append('|');
+
+        PrefManager prefManager = new PrefManager(context);
+        int pro = prefManager.getPro();
+        long now = new Date().getTime() / 1000;
+        Boolean isBasicUser = pro == -1 || pro < now;
+        fingerprint.append(isBasicUser).append('|')
+                .append(prefManager.getUserId()).append('|')
+                .append(prefManager.getTextFontSizeFactor()).append('|')
+                .append(Locale.getDefault()).append('|');
+
+        // normalizeUI only hides flash indicators, callers include it themselves when one could be showing.
+        Map args = new HashMap(extraArgs);
+        args.remove("normalizeUI");
+        fingerprint.append(args);
+        return fingerprint.toString();
+    }
+
+    /**
+     * If the widget could be showing an action in progress(flash indicator or result icon).
+     */
+    public static boolean isShowingAction(DeviceInfo info) {
+        Integer isShowingStatus = info.getIsShowingStatus();
+        return info.getMethodRequested() != null || (isShowingStatus != null && isShowingStatus == 1);
+    }
+
+    public static String describe(DeviceInfo info) {
+        return info.getWidgetId() + "," + info.getDeviceId() + "," + info.getDeviceName() + "," + info.getState()
+                + "," + info.getDeviceMethods() + "," + info.getDeviceType() + "," + info.getDeviceStateValue()
+                + "," + info.getTransparent() + "," + info.getUserId() + "," + info.getMethodRequested()
+                + "," + info.getIsShowingStatus() + "," + info.getUpdateInterval() + "," + info.getClientDeviceid()
+                + "," + info.getClientId() + "," + info.getSecondaryStateValue() + "," + info.getPrimarySetting()
+                + "," + info.getSecondarySetting() + "," + info.getRequestedStateValue()
+                + "," + info.getRequestedSecStateValue() + "," + info.getUserUuid();
+    }
+
+    /**
+     * Sends "views" to the launcher, unless the widget already shows a render with the same fingerprint.
+     * A null fingerprint always sends.
+     */
+    public static void updateAppWidget(AppWidgetManager appWidgetManager, int appWidgetId, RemoteViews views, String fingerprint) {
+        synchronized (WidgetRenderState.class) {
+            if (fingerprint != null && fingerprint.equals(layoutFingerprints.get(appWidgetId))) {
+                return;
+            }
+            layoutFingerprints.put(appWidgetId, fingerprint);
+            contentFingerprints.remove(appWidgetId);
+        }
+        appWidgetManager.updateAppWidget(appWidgetId, views);
+    }
+
+    /**
+     * Same as updateAppWidget, for widgets where some views(Ex: texts) change much more often than the rest.
+     * "layoutFingerprint" covers everything except what "contentViews" sets. If only the content changed,
+     * only "contentViews" is applied, with partiallyUpdateAppWidget.
+     */
+    public static void updateAppWidget(AppWidgetManager appWidgetManager, int appWidgetId, RemoteViews views,
+                                       String layoutFingerprint, RemoteViews contentViews, String contentFingerprint) {
+        boolean isLayoutSame;
+        synchronized (WidgetRenderState.class) {
+            isLayoutSame = layoutFingerprint.equals(layoutFingerprints.get(appWidgetId));
+            if (isLayoutSame && contentFingerprint.equals(contentFingerprints.get(appWidgetId))) {
+                return;
+            }
+            layoutFingerprints.put(appWidgetId, layoutFingerprint);
+            contentFingerprints.put(appWidgetId, contentFingerprint);
+        }
+        if (isLayoutSame) {
+            appWidgetManager.partiallyUpdateAppWidget(appWidgetId, contentViews);
+        } else {
+            appWidgetManager.updateAppWidget(appWidgetId, views);
+        }
+    }
+
+    /**
+     * Makes the next render of the widget go through, Ex: when the launcher asks for an update.
+     */
+    public static synchronized void forget(int appWidgetId) {
+        layoutFingerprints.remove(appWidgetId);
+        contentFingerprints.remove(appWidgetId);
+    }
+}
@@ -27,7 +27,6 @@ import com.facebook.react.bridge.ReactMethod;
 
 import android.appwidget.AppWidgetManager;
 import android.content.BroadcastReceiver;
-import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -86,6 +85,7 @@ public class WidgetModule extends ReactContextBaseJavaModule {
         WidgetsUpdater wUpdater = new WidgetsUpdater();
         Map extraArgs = new HashMap();
         extraArgs.put("normalizeUI", true);
+        extraArgs.put("syncDeviceStates", true);
         wUpdater.updateAllWidgets(context, extraArgs);
       }
     }
@@ -104,26 +104,7 @@ public class WidgetModule extends ReactContextBaseJavaModule {
     prefManager.setAccessDetails(accessToken, expiresIn, clientId, clientSecret, refreshToken);
     prefManager.setUserId(userId, pro);
     prefManager.setUserUuid(uuid);
-    int widgetIdsSensor[] = AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, NewSensorWidget.class));
-    for (int widgetId : widgetIdsSensor) {
-      wUpdater.updateUIWidgetSensor(widgetId, context, new HashMap());
-    }
-    int widgetIdsDevice2By1[] = AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, NewOnOffWidget.class));
-    for (int widgetId : widgetIdsDevice2By1) {
-      wUpdater.updateUIWidgetDevice2By1(widgetId, context, new HashMap());
-    }
-    int widgetIdsDevice3By1[] = AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, NewAppWidget.class));
-    for (int widgetId : widgetIdsDevice3By1) {
-      wUpdater.updateUIWidgetDevice3By1(widgetId, context, new HashMap());
-    }
-    int widgetIdsDeviceThermo[] = AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, NewThermostatWidget.class));
-    for (int widgetId : widgetIdsDeviceThermo) {
-      wUpdater.updateUIWidgetDeviceThermo(widgetId, context, new HashMap());
-    }
-    int widgetIdsDeviceRGB[] = AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, NewRGBWidget.class));
-    for (int widgetId : widgetIdsDeviceRGB) {
-      wUpdater.updateUIWidgetDeviceRGB(widgetId, context, new HashMap());
-    }
+    wUpdater.updateAllWidgets(context, new HashMap());
   }
 
   @ReactMethod
@@ -155,11 +136,7 @@ public class WidgetModule extends ReactContextBaseJavaModule {
         if (wId != null) {
           db.updateDeviceIdDeviceWidget(-1, wId);
 
-          AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
-          NewOnOffWidget.updateAppWidget(context, widgetManager, wId, new HashMap());
-          NewAppWidget.updateAppWidget(context, widgetManager, wId, new HashMap());
-          NewThermostatWidget.updateAppWidget(context, widgetManager, wId, new HashMap());
-          NewRGBWidget.updateAppWidget(context, widgetManager, wId, new HashMap());
+          wUpdater.updateUIWidgetDevice(wId, context, new HashMap());
         }
       }
     }
@@ -213,7 +190,6 @@ public class WidgetModule extends ReactContextBaseJavaModule {
     refreshWidgetsDevices3By1(deviceIds, devicesData);
     refreshWidgetsDevicesThermo(deviceIds, devicesData);
     refreshWidgetsDevicesRGB(deviceIds, devicesData);
-    refreshWidgetsDevicesRGB(deviceIds, devicesData);
   }
 
   public void refreshWidgetsDevices2By1(ReadableArray deviceIds, ReadableMap devicesData) {
@@ -0,0 +1,219 @@
+/**
+ * Copyright 2016-present Telldus Technologies AB.
+ *
+ * This file is part of the Telldus Live! app.
+ *
+ * Telldus Live! app is free : you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Telldus Live! app is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Telldus Live! app.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.telldus.live.mobile;
+
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders widgets on a single background thread, so that DB reads, drawing of the icons and
+ * publishing of the RemoteViews do not happen on the main thread.
+ *
+ * Requests for a widget that is already waiting to be rendered are merged into the waiting one, so a
+ * burst of updates(Ex: several socket events for the same device) results in a single render, and each
+ * widget is rendered at most once per batch.
+ *
+ * Direct requests(Ex: the user tapped the widget) are rendered right away. Refreshes of all the widgets
+ * (Ex: on screen on) wait REFRESH_WINDOW_MS so that repeated ones are collapsed, and within a batch the
+ * widgets that were interacted with most recently are rendered first.
+ */
+public class WidgetRenderQueue {
+    private static final String TAG = "WidgetRenderQueue";
+
+    private static final long REFRESH_WINDOW_MS = 500;
+
+    private static final ScheduledExecutorService renderExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    // Guarded by WidgetRenderQueue.class
+    private static LinkedHashMap<Integer, RenderRequest> pending = new LinkedHashMap<Integer, RenderRequest>();
+    private static List<BroadcastReceiver.PendingResult> pendingResults = new ArrayList<BroadcastReceiver.PendingResult>();
+    private static final HashMap<Integer, Long> lastInteractedAt = new HashMap<Integer, Long>();
+    // Uptime at which the next batch is due, 0 if none is scheduled.
+    private static long renderDueAt = 0;
+
+    private static class RenderRequest {
+        int widgetId;
+        Class<? extends AppWidgetProvider> provider;
+        Map extraArgs = new HashMap();
+        boolean isDirect = false;
+        long lastInteractedAt = 0;
+    }
+
+    public static void enqueue(Context context, Class<? extends AppWidgetProvider> provider, int widgetId, Map extraArgs) {
+        enqueue(context, provider, new int[]{widgetId}, extraArgs, null);
+    }
+
+    /**
+     * Queues a render of the widgets. If the render was requested from a broadcast, pass the result of
+     * BroadcastReceiver.goAsync, it is finished once all the widgets have been rendered.
+     */
+    public static void enqueue(
+            Context context,
+            Class<? extends AppWidgetProvider> provider,
+            int[] widgetIds,
+            Map extraArgs,
+            BroadcastReceiver.PendingResult pendingResult
+    ) {
+        enqueue(context, provider, widgetIds, extraArgs, pendingResult, true);
+    }
+
+    /**
+     * Queues a refresh of the widgets, rendered together with the other refreshes requested within
+     * REFRESH_WINDOW_MS.
+     */
+    public static void enqueueRefresh(Context context, Class<? extends AppWidgetProvider> provider, int[] widgetIds, Map extraArgs) {
+        enqueue(context, provider, widgetIds, extraArgs, null, false);
+    }
+
+    private static void enqueue(
+            Context context,
+            Class<? extends AppWidgetProvider> provider,
+            int[] widgetIds,
+            Map extraArgs,
+            BroadcastReceiver.PendingResult pendingResult,
+            boolean isDirect
+    ) {
+        final Context appContext = context.getApplicationContext();
+        long now = SystemClock.uptimeMillis();
+        long delay = isDirect ? 0 : REFRESH_WINDOW_MS;
+        synchronized (WidgetRenderQueue.class) {
+            for (int widgetId : widgetIds) {
+                RenderRequest request = pending.get(widgetId);
+                if (request == null) {
+                    request = new RenderRequest();
+                    request.widgetId = widgetId;
+                    pending.put(widgetId, request);
+                }
+                request.provider = provider;
+                // The arguments are render modes(Ex: normalizeUI hides the flash indicators), so they are
+                // not carried over into a direct request. A direct request replaces the pending arguments,
+                // and a refresh does not add its arguments to a pending direct request.
+                if (isDirect) {
+                    request.extraArgs = extraArgs == null ? new HashMap() : new HashMap(extraArgs);
+                    request.isDirect = true;
+                    lastInteractedAt.put(widgetId, now);
+                } else if (!request.isDirect && extraArgs != null) {
+                    request.extraArgs.putAll(extraArgs);
+                }
+            }
+            if (pendingResult != null) {
+                pendingResults.add(pendingResult);
+            }
+            // A batch that is due sooner will pick these up as well.
+            if (renderDueAt != 0 && renderDueAt <= now + delay) {
+                return;
+            }
+            renderDueAt = now + delay;
+        }
+
+        renderExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                renderPending(appContext);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void renderPending(Context context) {
+        ArrayList<RenderRequest> requests;
+        List<BroadcastReceiver.PendingResult> results;
+        synchronized (WidgetRenderQueue.class) {
+            requests = new ArrayList<RenderRequest>(pending.values());
+            for (RenderRequest request : requests) {
+                Long interactedAt = lastInteractedAt.get(request.widgetId);
+                request.lastInteractedAt = interactedAt == null ? 0 : interactedAt;
+            }
+            results = pendingResults;
+            pending = new LinkedHashMap<Integer, RenderRequest>();
+            pendingResults = new ArrayList<BroadcastReceiver.PendingResult>();
+            renderDueAt = 0;
+        }
+
+        // Widgets the user is acting on first, then the most recently used ones.
+        Collections.sort(requests, new Comparator<RenderRequest>() {
+            @Override
+            public int compare(RenderRequest a, RenderRequest b) {
+                if (a.isDirect != b.isDirect) {
+                    return a.isDirect ? -1 : 1;
+                }
+                return Long.compare(b.lastInteractedAt, a.lastInteractedAt);
+            }
+        });
+
+        try {
+            AppWidgetManager widgetManager = AppWidgetManager.getInstance(context);
+            for (RenderRequest request : requests) {
+                try {
+                    render(context, widgetManager, request.provider, request.widgetId, request.extraArgs);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to render widget " + request.widgetId, e);
+                }
+            }
+        } finally {
+            for (BroadcastReceiver.PendingResult result : results) {
+                result.finish();
+            }
+        }
+    }
+
+    /**
+     * Drops what is kept about a deleted widget.
+     */
+    public static void forget(int widgetId) {
+        synchronized (WidgetRenderQueue.class) {
+            lastInteractedAt.remove(widgetId);
+        }
+    }
+
+    private static void render(
+            Context context,
+            AppWidgetManager widgetManager,
+            Class<? extends AppWidgetProvider> provider,
+            int widgetId,
+            Map extraArgs
+    ) {
+        if (provider == NewAppWidget.class) {
+            NewAppWidget.renderAppWidget(context, widgetManager, widgetId, extraArgs);
+        } else if (provider == NewOnOffWidget.class) {
+            NewOnOffWidget.renderAppWidget(context, widgetManager, widgetId, extraArgs);
+        } else if (provider == NewRGBWidget.class) {
+            NewRGBWidget.renderAppWidget(context, widgetManager, widgetId, extraArgs);
+        } else if (provider == NewThermostatWidget.class) {
+            NewThermostatWidget.renderAppWidget(context, widgetManager, widgetId, extraArgs);
+        } else if (provider == NewSensorWidget.class) {
+            NewSensorWidget.renderAppWidget(context, widgetManager, widgetId, extraArgs);
+        }
+    }
+}
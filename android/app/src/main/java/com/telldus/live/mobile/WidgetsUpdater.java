@@ -21,16 +21,31 @@ package com.telldus.live.mobile;
 
 import android.content.Context;
 import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
+import android.os.SystemClock;
 
+import com.androidnetworking.error.ANError;
+
+import com.telldus.live.mobile.API.APIHttpClient;
+import com.telldus.live.mobile.API.DevicesAPI;
+import com.telldus.live.mobile.API.OnAPITaskComplete;
 import com.telldus.live.mobile.Database.MyDBHandler;
 import com.telldus.live.mobile.Model.DeviceInfo;
+import com.telldus.live.mobile.Utility.DevicesUtilities;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.json.JSONObject;
+
 public class WidgetsUpdater  {
 
+    private static final long SYNC_DEVICE_STATES_MIN_INTERVAL_MS = 10 * 1000;
+
+    private static long lastDeviceStatesSyncAt = 0;
+
     public int[] getAllWidgetsSensor(Context context) {
         return AppWidgetManager.getInstance(context).getAppWidgetIds(new ComponentName(context, NewSensorWidget.class));
     }
@@ -76,48 +91,119 @@ public class WidgetsUpdater  {
         NewRGBWidget.updateAppWidget(context, widgetManager, widgetId, extraArgs);
     }
 
+    /**
+     * Updates a device widget of any kind, the provider is looked up from the widget id.
+     */
+    public void updateUIWidgetDevice(int widgetId, Context context, Map extraArgs) {
+        AppWidgetProviderInfo providerInfo = AppWidgetManager.getInstance(context).getAppWidgetInfo(widgetId);
+        if (providerInfo == null || providerInfo.provider == null) {
+            return;
+        }
+        String className = providerInfo.provider.getClassName();
+        if (className.equals(NewOnOffWidget.class.getName())) {
+            updateUIWidgetDevice2By1(widgetId, context, extraArgs);
+        } else if (className.equals(NewAppWidget.class.getName())) {
+            updateUIWidgetDevice3By1(widgetId, context, extraArgs);
+        } else if (className.equals(NewThermostatWidget.class.getName())) {
+            updateUIWidgetDeviceThermo(widgetId, context, extraArgs);
+        } else if (className.equals(NewRGBWidget.class.getName())) {
+            updateUIWidgetDeviceRGB(widgetId, context, extraArgs);
+        }
+    }
+
+    /**
+     * Re-renders device widgets whose state is kept up to date by DevicesAPI.syncWidgetDeviceStates.
+     */
+    public void updateUIWidgetsDeviceStates(Context context, Map extraArgs) {
+        WidgetRenderQueue.enqueueRefresh(context, NewOnOffWidget.class, getAllWidgetsDevice2By1(context), extraArgs);
+        WidgetRenderQueue.enqueueRefresh(context, NewAppWidget.class, getAllWidgetsDevice3By1(context), extraArgs);
+        WidgetRenderQueue.enqueueRefresh(context, NewRGBWidget.class, getAllRGBWidgets(context), extraArgs);
+    }
+
+    /**
+     * Device states are fetched at most once every SYNC_DEVICE_STATES_MIN_INTERVAL_MS, a state changed
+     * in between reaches the widgets through the socket or the action that changed it.
+     */
+    private static synchronized boolean shouldSyncDeviceStates() {
+        long now = SystemClock.elapsedRealtime();
+        if (lastDeviceStatesSyncAt != 0 && (now - lastDeviceStatesSyncAt) < SYNC_DEVICE_STATES_MIN_INTERVAL_MS) {
+            return false;
+        }
+        lastDeviceStatesSyncAt = now;
+        return true;
+    }
+
+    /**
+     * Fetches the state of all devices shown in widgets with a single request, and renders
+     * the device widgets once if anything has changed.
+     */
+    public void syncDeviceStates(final Context context) {
+        int widgetsCount = getAllWidgetsDevice2By1(context).length
+                + getAllWidgetsDevice3By1(context).length
+                + getAllRGBWidgets(context).length;
+        if (widgetsCount == 0) {
+            return;
+        }
+
+        DevicesAPI devicesAPI = new DevicesAPI();
+        devicesAPI.syncWidgetDeviceStates(context, new OnAPITaskComplete() {
+            @Override
+            public void onSuccess(JSONObject response, HashMap<String, String> authData) {
+                if (response.optInt("widgetsUpdated", 0) > 0) {
+                    updateUIWidgetsDeviceStates(context, new HashMap());
+                }
+            }
+
+            @Override
+            public void onError(ANError error) {
+            }
+        });
+    }
+
     public void updateAllWidgets(Context context, Map extraArgs) {
+        // Widgets will most likely hit the API right after this, get a connection ready.
+        APIHttpClient.warmUp();
+        DevicesUtilities.warmUpIcons(context);
+
         MyDBHandler db = new MyDBHandler(context);
         Object normalizeUIO = extraArgs.get("normalizeUI");
         Boolean normalizeUI = normalizeUIO == null ? false : (Boolean) normalizeUIO;
+        Object syncDeviceStatesO = extraArgs.get("syncDeviceStates");
+        Boolean syncDeviceStates = syncDeviceStatesO == null ? false : (Boolean) syncDeviceStatesO;
         
-        int widgetIdsSensor[] = getAllWidgetsSensor(context);
-        for (int widgetId : widgetIdsSensor) {
-            updateUIWidgetSensor(widgetId, context, extraArgs);
-        }
         int widgetIdsDevice2By1[] = getAllWidgetsDevice2By1(context);
-        for (int widgetId : widgetIdsDevice2By1) {
-            if (normalizeUI) {
-                DeviceInfo widgetInfo = db.findWidgetInfoDevice(widgetId);
-                String secondaryStateValue = widgetInfo.getSecondaryStateValue();
-                String stateValue = widgetInfo.getDeviceStateValue();
-                db.updateDeviceInfo(null, null, stateValue, 0, secondaryStateValue, widgetId, null, null);
-            }
-            updateUIWidgetDevice2By1(widgetId, context, extraArgs);
-        }
         int widgetIdsDevice3By1[] = getAllWidgetsDevice3By1(context);
-        for (int widgetId : widgetIdsDevice3By1) {
-            if (normalizeUI) {
-                DeviceInfo widgetInfo = db.findWidgetInfoDevice(widgetId);
-                String secondaryStateValue = widgetInfo.getSecondaryStateValue();
-                String stateValue = widgetInfo.getDeviceStateValue();
-                db.updateDeviceInfo(null, null, stateValue, 0, secondaryStateValue, widgetId, null, null);
-            }
-            updateUIWidgetDevice3By1(widgetId, context, extraArgs);
-        }
-        int widgetIdsDeviceThermo[] = getAllThermostatWidgets(context);
-        for (int widgetId : widgetIdsDeviceThermo) {
-            updateUIWidgetDeviceThermo(widgetId, context, extraArgs);
-        }
         int widgetIdsDeviceRGB[] = getAllRGBWidgets(context);
-        for (int widgetId : widgetIdsDeviceRGB) {
-            if (normalizeUI) {
-                DeviceInfo widgetInfo = db.findWidgetInfoDevice(widgetId);
-                String secondaryStateValue = widgetInfo.getSecondaryStateValue();
-                String stateValue = widgetInfo.getDeviceStateValue();
-                db.updateDeviceInfo(null, null, stateValue, 0, secondaryStateValue, widgetId, null, null);
+        if (normalizeUI) {
+            // Written to the database in one go.
+            ArrayList<DeviceInfo> normalizedWidgetInfos = new ArrayList<DeviceInfo>();
+            for (int[] widgetIds : new int[][]{widgetIdsDevice2By1, widgetIdsDevice3By1, widgetIdsDeviceRGB}) {
+                for (int widgetId : widgetIds) {
+                    DeviceInfo widgetInfo = db.findWidgetInfoDevice(widgetId);
+                    if (widgetInfo == null) {
+                        continue;
+                    }
+                    DeviceInfo normalized = new DeviceInfo();
+                    normalized.setWidgetId(widgetId);
+                    normalized.setDeviceStateValue(widgetInfo.getDeviceStateValue());
+                    normalized.setIsShowingStatus(0);
+                    normalized.setSecondaryStateValue(widgetInfo.getSecondaryStateValue());
+                    normalizedWidgetInfos.add(normalized);
+                }
             }
-            updateUIWidgetDeviceRGB(widgetId, context, extraArgs);
+            db.updateDeviceInfo(normalizedWidgetInfos);
+        }
+
+        // Repeated refreshes(Ex: quick screen on/off) within the refresh window are rendered once.
+        WidgetRenderQueue.enqueueRefresh(context, NewSensorWidget.class, getAllWidgetsSensor(context), extraArgs);
+        WidgetRenderQueue.enqueueRefresh(context, NewOnOffWidget.class, widgetIdsDevice2By1, extraArgs);
+        WidgetRenderQueue.enqueueRefresh(context, NewAppWidget.class, widgetIdsDevice3By1, extraArgs);
+        WidgetRenderQueue.enqueueRefresh(context, NewThermostatWidget.class, getAllThermostatWidgets(context), extraArgs);
+        WidgetRenderQueue.enqueueRefresh(context, NewRGBWidget.class, widgetIdsDeviceRGB, extraArgs);
+
+        // Render with what is stored, and once more only if the fetched states differ.
+        if (syncDeviceStates && shouldSyncDeviceStates()) {
+            syncDeviceStates(context);
         }
     }
 }